@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.asymmetric;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.jfr.AwaitEvent;
+import com.noqms.tests.jfr.ProcessRequestEvent;
+import com.noqms.tests.jfr.SendEvent;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.PayloadGenerator;
+import com.noqms.tests.util.SizeDistribution;
+import com.noqms.tests.util.SteadyStateMeter;
+
+// Round trips where the request and the response have their own size distributions, like a read heavy API (small
+// request, large response) or an ingest API (large request, small acknowledgement).
+// Both services run in this process, so one System.nanoTime clock covers both ends: the first 8 bytes of a request
+// carry its send time and the first 8 bytes of a response its send time. That splits each round trip into the request
+// path (send until processRequest starts, including the wait for a service thread) and the response path
+// (sendResponse until await returns), which shows which direction is the bottleneck.
+// Every message is at least 8 bytes for the timestamp. Only answered requests count toward the rate and the round trip
+// latency; timed out ones are reported on their own.
+
+public class AsymmetricTest {
+    private static final int TIMESTAMP_BYTES = Long.BYTES;
+    private static final LongAdder requestBytes = new LongAdder();
+    private static final LongAdder responseBytes = new LongAdder();
+    private static final LatencyHistogram requestPath = new LatencyHistogram();
+    private static final LatencyHistogram responsePath = new LatencyHistogram();
+    private static volatile SizeDistribution responseSizes;
+    private static volatile int maxResponseBytes;
+    private static volatile byte[] responseTemplate;
+
+    private final int threads;
+    private final SizeDistribution requestSizes;
+    private final int maxRequestBytes;
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final LongAdder completions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public AsymmetricTest(int threads, SizeDistribution requestSizes, int maxRequestBytes,
+            SizeDistribution responseSizes, int maxResponseBytes) {
+        if (maxRequestBytes < TIMESTAMP_BYTES || maxResponseBytes < TIMESTAMP_BYTES)
+            throw new IllegalArgumentException("Max message bytes must leave room for the timestamp: "
+                    + TIMESTAMP_BYTES);
+        this.threads = threads;
+        this.requestSizes = requestSizes;
+        this.maxRequestBytes = maxRequestBytes;
+        AsymmetricTest.responseSizes = responseSizes;
+        AsymmetricTest.maxResponseBytes = maxResponseBytes;
+    }
+
+    public void run() throws Exception {
+        responseTemplate = PayloadGenerator.fromName("random").generate(1, maxResponseBytes, 1)[0];
+        byte[] requestTemplate = PayloadGenerator.fromName("random").generate(1, maxRequestBytes, 2)[0];
+        CountingLogListener logListener = new CountingLogListener();
+        MicroService incoming = startMicroIncoming(logListener);
+        startMicroTest(logListener);
+
+        TestThread[] testThreads = new TestThread[threads];
+        for (int ix = 0; ix < threads; ix++) {
+            testThreads[ix] = new TestThread(ix, incoming, requestTemplate);
+            testThreads[ix].start();
+        }
+
+        AtomicReference<long[]> measureStart = new AtomicReference<>();
+        SteadyStateMeter meter = new SteadyStateMeter("AsymmetricTest", completions::sum, interval);
+        meter.reportLogEvents(logListener);
+        meter.onMeasureStart(() -> {
+            requestPath.reset();
+            responsePath.reset();
+            measureStart.set(new long[] {System.nanoTime(), requestBytes.sum(), responseBytes.sum(), timeouts.sum()});
+        });
+        SteadyStateMeter.Result result = meter.measure();
+        double seconds = (System.nanoTime() - measureStart.get()[0]) / (double)TimeUnit.SECONDS.toNanos(1);
+        long requestMBPerSecond = (long)((requestBytes.sum() - measureStart.get()[1]) / seconds / 1000000);
+        long responseMBPerSecond = (long)((responseBytes.sum() - measureStart.get()[2]) / seconds / 1000000);
+        long timedOutPerSecond = (long)((timeouts.sum() - measureStart.get()[3]) / seconds);
+        for (int ix = 0; ix < threads; ix++)
+            testThreads[ix].stop = true;
+        sleepMillis(100);
+
+        String slowerPath = requestPath.getPercentileNanos(50) > responsePath.getPercentileNanos(50) ? "request"
+                : "response";
+        System.out.println("requestSizes=" + requestSizes.getName() + " responseSizes=" + responseSizes.getName()
+                + " threads=" + threads + " requestsPerSecond=" + (long)result.ratePerSecond + " requestMBPerSecond="
+                + requestMBPerSecond + " responseMBPerSecond=" + responseMBPerSecond + " timedOutPerSecond="
+                + timedOutPerSecond + " slowerPath=" + slowerPath + " warmupSeconds=" + result.warmupSeconds
+                + " steady=" + result.steady);
+        System.out.println("requestPath " + requestPath.toMicrosString());
+        System.out.println("responsePath " + responsePath.toMicrosString());
+        System.out.println("roundTrip " + result.latency.toMicrosString());
+        System.out.println(logListener);
+        new BenchmarkResult().put("requestsPerSecond", (long)result.ratePerSecond)
+                .put("requestMBPerSecond", requestMBPerSecond).put("responseMBPerSecond", responseMBPerSecond)
+                .put("timedOutPerSecond", timedOutPerSecond)
+                .putLatency("requestPath", requestPath).putLatency("responsePath", responsePath)
+                .putLatency("roundTrip", result.latency).put("warnings", logListener.getWarnings()).print();
+    }
+
+    // Closed loop: each caller waits for its response before sending the next request.
+    private class TestThread extends Thread {
+        private volatile boolean stop;
+        private final int threadIndex;
+        private final MicroService incoming;
+        private final byte[] requestTemplate;
+
+        public TestThread(int threadIndex, MicroService incoming, byte[] requestTemplate) {
+            this.threadIndex = threadIndex;
+            this.incoming = incoming;
+            this.requestTemplate = requestTemplate;
+            setDaemon(true);
+        }
+
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop) {
+                int size = requestSizes.next(random, TIMESTAMP_BYTES, maxRequestBytes);
+                byte[] data = Arrays.copyOf(requestTemplate, size);
+                long startNanos = System.nanoTime();
+                ByteBuffer.wrap(data).putLong(0, startNanos);
+                SendEvent sendEvent = SendEvent.start();
+                ResponseFuture responseFuture = incoming.sendRequestExpectResponse("Test", data);
+                sendEvent.finish("Test", data, threadIndex, true, responseFuture.getRequestStatus());
+                if (responseFuture.getRequestStatus() != RequestStatus.Ok) {
+                    sleepMillis(1);
+                    continue;
+                }
+                requestBytes.add(size);
+                AwaitEvent awaitEvent = AwaitEvent.start();
+                ResponseFuture.Response response = responseFuture.await();
+                awaitEvent.finish("Test", response.data, threadIndex, response.timedOut);
+                long endNanos = System.nanoTime();
+                if (response.timedOut || response.data == null || response.data.length < TIMESTAMP_BYTES) {
+                    timeouts.increment();
+                } else {
+                    responsePath.record(endNanos - ByteBuffer.wrap(response.data).getLong(0));
+                    responseBytes.add(response.data.length);
+                    interval.record(endNanos - startNanos);
+                    completions.increment();
+                }
+            }
+        }
+    }
+
+    private void startMicroTest(LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "AsymmetricTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Test");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.asymmetric.AsymmetricTest$MicroTest");
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "1000");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxRequestBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxResponseBytes));
+        Starter.start(props, logListener);
+    }
+
+    private MicroService startMicroIncoming(LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "AsymmetricTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.asymmetric.AsymmetricTest$MicroIncoming");
+        props.setProperty(Starter.PROP_THREADS, "1");
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "1000");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxResponseBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxRequestBytes));
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroTest extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            if (data != null && data.length >= TIMESTAMP_BYTES)
+                requestPath.record(System.nanoTime() - ByteBuffer.wrap(data).getLong(0));
+            ProcessRequestEvent event = ProcessRequestEvent.start();
+            int size = responseSizes.next(ThreadLocalRandom.current(), TIMESTAMP_BYTES, maxResponseBytes);
+            byte[] response = Arrays.copyOf(responseTemplate, size);
+            ByteBuffer.wrap(response).putLong(0, System.nanoTime());
+            sendResponse(requestId, null, null, null, response);
+            event.finish(serviceNameFrom, response, threadIndex, "Responded");
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
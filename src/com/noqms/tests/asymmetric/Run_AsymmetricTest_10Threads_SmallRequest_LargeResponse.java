@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.asymmetric;
+
+import com.noqms.tests.util.ForkRunner;
+import com.noqms.tests.util.SizeDistribution;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.asymmetric.Run_AsymmetricTest_10Threads_SmallRequest_LargeResponse [requestSizes] [responseSizes]
+// Defaults to a read heavy API: 100 byte requests, responses around 20KB with a long tail up to 500KB.
+// Sizes: <bytes>, fixed:<bytes>, uniform:<min>:<max>, lognormal:<median>:<sigma>, bimodal:<small>:<large>:<fraction>
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+
+// This test can also be directly run from an IDE.
+
+public class Run_AsymmetricTest_10Threads_SmallRequest_LargeResponse {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_AsymmetricTest_10Threads_SmallRequest_LargeResponse.class, args))
+            return;
+
+        int threads = 10;
+        String requestSizes = args.length > 0 ? args[0] : "fixed:100";
+        String responseSizes = args.length > 1 ? args[1] : "lognormal:20000:1";
+        int maxRequestBytes = 1000;
+        int maxResponseBytes = 500000;
+
+        try {
+            AsymmetricTest test = new AsymmetricTest(threads, SizeDistribution.fromName(requestSizes),
+                    maxRequestBytes, SizeDistribution.fromName(responseSizes), maxResponseBytes);
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
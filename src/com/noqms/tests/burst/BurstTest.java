@@ -0,0 +1,350 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.burst;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.ResponseAwaiter;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Fires bursts of requests at a set of services after a quiet period and measures how the stack absorbs them:
+// requests refused at send, requests that never reached a service, requests timed out, the time for the services to
+// drain the backlog, and how long a probe sending one request a millisecond through the same services takes to get
+// back under twice its quiet p99.
+// The sweep runs every burst size against every thread count (PROP_THREADS) and timeout, each combination in its own
+// group of freshly started services, which shows where the buffering inside the stack overflows. The burst is sent
+// by several threads released together; whether a large burst really leaves within a millisecond depends on the send
+// path, so the time taken to send it is reported too. Each request spins for workMicros in the service so that
+// capacity is set by cpu rather than by sleep precision.
+// Burst responses are timed when they arrive, by a ResponseAwaiter, so the latency includes the way back where the
+// burst queues up as much as on the way in.
+// Each combination's services are drained before the next group starts so they don't compete for the cpu.
+
+public class BurstTest {
+    private static final LongAdder processed = new LongAdder();
+    private static final LongAccumulator lastProcessedNanos = new LongAccumulator(Math::max, 0);
+    private static volatile long workNanos;
+
+    private final int microServices;
+    private final int[] threadCounts;
+    private final int[] timeoutMillis;
+    private final int[] burstSizes;
+    private final int burstThreads;
+    private final long quietMillis;
+    private final int dataLength;
+
+    public BurstTest(int microServices, int[] threadCounts, int[] timeoutMillis, int[] burstSizes, int burstThreads,
+            long quietMillis, int dataLength, long workMicros) {
+        this.microServices = microServices;
+        this.threadCounts = threadCounts;
+        this.timeoutMillis = timeoutMillis;
+        this.burstSizes = burstSizes;
+        this.burstThreads = burstThreads;
+        this.quietMillis = quietMillis;
+        this.dataLength = Math.max(1, dataLength);
+        BurstTest.workNanos = TimeUnit.MICROSECONDS.toNanos(workMicros);
+    }
+
+    public void run() throws Exception {
+        // overflow is what this test is after, so warnings are counted per burst rather than ending the test
+        CountingLogListener logListener = new CountingLogListener(Integer.MAX_VALUE);
+        byte[] data = new byte[dataLength];
+        BenchmarkResult benchmarkResult = new BenchmarkResult();
+        for (int threads : threadCounts) {
+            for (int timeout : timeoutMillis) {
+                String group = "BurstTest_" + threads + "Threads_" + timeout + "Millis";
+                MicroService incoming = startMicroService(group, "Incoming",
+                        "com.noqms.tests.burst.BurstTest$MicroIncoming", 1, timeout, logListener);
+                MicroService[] services = new MicroService[microServices];
+                for (int ix = 1; ix <= microServices; ix++)
+                    services[ix - 1] = startMicroService(group, "Burst#" + ix,
+                            "com.noqms.tests.burst.BurstTest$MicroBurst", threads, timeout, logListener);
+
+                ProbeThread probe = new ProbeThread(incoming);
+                probe.start();
+                for (int burstSize : burstSizes) {
+                    Outcome outcome = runBurst(incoming, probe, data, burstSize, logListener);
+                    System.out.println("threads=" + threads + " timeoutMillis=" + timeout + " " + outcome);
+                    String prefix = "t" + threads + "_to" + timeout + "_b" + burstSize + "_";
+                    benchmarkResult.put(prefix + "Refused", outcome.refused).put(prefix + "TimedOut", outcome.timedOut)
+                            .put(prefix + "DrainMillis", outcome.drainMillis)
+                            .put(prefix + "RecoveryMillis", outcome.recoveryMillis)
+                            .put(prefix + "LateTimed", outcome.lateTimed)
+                            .put(prefix + "P99Micros", TimeUnit.NANOSECONDS.toMicros(
+                                    outcome.burstLatency.getPercentileNanos(99)));
+                }
+                probe.stop = true;
+                probe.join();
+                for (MicroService service : services)
+                    service.drain();
+                incoming.drain();
+                sleepMillis(2 * timeout); // let the drained services finish before the next group
+            }
+        }
+        logListener.close();
+        System.out.println(logListener);
+        benchmarkResult.put("warnings", logListener.getWarnings()).print();
+    }
+
+    private Outcome runBurst(MicroService incoming, ProbeThread probe, byte[] data, int burstSize,
+            CountingLogListener logListener) throws InterruptedException {
+        probe.clear();
+        sleepMillis(quietMillis);
+        long quietP99Nanos = probe.getQuietLatency().getPercentileNanos(99);
+        long processedBefore = processed.sum();
+        long warningsBefore = logListener.getWarnings();
+
+        Outcome outcome = new Outcome(burstSize);
+        LongAdder timedOut = new LongAdder();
+        ResponseAwaiter awaiter = new ResponseAwaiter("Burst", (response, latencyNanos) -> {
+            if (response.timedOut)
+                timedOut.increment();
+            else
+                outcome.burstLatency.record(latencyNanos);
+        });
+        awaiter.prestart(burstSize);
+        CountDownLatch startGate = new CountDownLatch(1);
+        BurstThread[] senders = new BurstThread[burstThreads];
+        for (int ix = 0; ix < burstThreads; ix++) {
+            int requests = burstSize / burstThreads + (ix < burstSize % burstThreads ? 1 : 0);
+            senders[ix] = new BurstThread(incoming, data, requests, ix, startGate, awaiter);
+            senders[ix].start();
+        }
+        sleepMillis(10); // let every sender reach the gate
+        long burstStartNanos = System.nanoTime();
+        startGate.countDown();
+        for (BurstThread sender : senders)
+            sender.join();
+
+        // the backlog has drained once nothing has been processed for a while
+        long lastCount;
+        do {
+            lastCount = processed.sum();
+            sleepMillis(500);
+        } while (processed.sum() != lastCount);
+        awaiter.awaitAll();
+        awaiter.stop();
+
+        long sentNanos = 0;
+        outcome.timedOut = timedOut.sum();
+        outcome.lateTimed = awaiter.getLate();
+        for (BurstThread sender : senders) {
+            outcome.refused += sender.refused;
+            sentNanos = Math.max(sentNanos, sender.sentNanos - burstStartNanos);
+        }
+        outcome.sendMicros = TimeUnit.NANOSECONDS.toMicros(sentNanos);
+        outcome.processed = processed.sum() - processedBefore;
+        outcome.warnings = logListener.getWarnings() - warningsBefore;
+        outcome.drainMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, lastProcessedNanos.get() - burstStartNanos));
+        probe.recovery(burstStartNanos, 2 * quietP99Nanos, outcome);
+        return outcome;
+    }
+
+    private static class Outcome {
+        private final int burstSize;
+        private final LatencyHistogram burstLatency = new LatencyHistogram();
+        private final LatencyHistogram recoveryLatency = new LatencyHistogram();
+        private long sendMicros;
+        private long refused;
+        private long timedOut;
+        private long lateTimed;
+        private long processed;
+        private long warnings;
+        private long drainMillis;
+        private long recoveryMillis;
+
+        private Outcome(int burstSize) {
+            this.burstSize = burstSize;
+        }
+
+        @Override
+        public String toString() {
+            return "burst=" + burstSize + " sendMicros=" + sendMicros + " refused=" + refused + " timedOut="
+                    + timedOut + " processed=" + processed + " lost=" + (burstSize - refused - processed) + " warnings="
+                    + warnings + " lateTimed=" + lateTimed + " drainMillis=" + drainMillis + " recoveryMillis="
+                    + recoveryMillis
+                    + "\n  burstLatency " + burstLatency.toMicrosString()
+                    + "\n  recoveryLatency " + recoveryLatency.toMicrosString();
+        }
+    }
+
+    // Sends its share of the burst without waiting, handing every response to the awaiter.
+    private class BurstThread extends Thread {
+        private final MicroService incoming;
+        private final byte[] data;
+        private final int requests;
+        private final int offset;
+        private final CountDownLatch startGate;
+        private final ResponseAwaiter awaiter;
+        private long sentNanos;
+        private long refused;
+
+        public BurstThread(MicroService incoming, byte[] data, int requests, int offset, CountDownLatch startGate,
+                ResponseAwaiter awaiter) {
+            this.incoming = incoming;
+            this.data = data;
+            this.requests = requests;
+            this.offset = offset;
+            this.startGate = startGate;
+            this.awaiter = awaiter;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                startGate.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            for (int ix = 0; ix < requests; ix++) {
+                long sendNanos = System.nanoTime();
+                ResponseFuture responseFuture = incoming.sendRequestExpectResponse(
+                        "Burst#" + (1 + (offset + ix) % microServices), data);
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok)
+                    awaiter.add(responseFuture, sendNanos);
+                else
+                    refused++;
+            }
+            sentNanos = System.nanoTime();
+        }
+    }
+
+    // One request a millisecond through the bursted services, kept as (start, latency or -1 for a timeout).
+    // Probe requests carry no data so the services can tell them from the burst.
+    private static class ProbeThread extends Thread {
+        private volatile boolean stop;
+        private final MicroService incoming;
+        private final List<long[]> probes = new ArrayList<>();
+
+        public ProbeThread(MicroService incoming) {
+            this.incoming = incoming;
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (!stop) {
+                long startNanos = System.nanoTime();
+                ResponseFuture responseFuture = incoming.sendRequestExpectResponse("Burst#1", null);
+                boolean answered = responseFuture.getRequestStatus() == RequestStatus.Ok
+                        && !responseFuture.await().timedOut;
+                long nanos = answered ? System.nanoTime() - startNanos : -1;
+                synchronized (probes) {
+                    probes.add(new long[] {startNanos, nanos});
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        private void clear() {
+            synchronized (probes) {
+                probes.clear();
+            }
+        }
+
+        private LatencyHistogram getQuietLatency() {
+            LatencyHistogram latency = new LatencyHistogram();
+            synchronized (probes) {
+                for (long[] probe : probes)
+                    if (probe[1] >= 0)
+                        latency.record(probe[1]);
+            }
+            return latency;
+        }
+
+        // Recovery ends when the last probe started after the burst that was slower than the threshold, or timed
+        // out, came back. The probes up to then make up the recovery latency.
+        private void recovery(long burstStartNanos, long thresholdNanos, Outcome outcome) {
+            long recoveredNanos = burstStartNanos;
+            List<long[]> after = new ArrayList<>();
+            synchronized (probes) {
+                for (long[] probe : probes)
+                    if (probe[0] >= burstStartNanos)
+                        after.add(probe);
+            }
+            for (long[] probe : after) {
+                if (probe[1] < 0 || probe[1] > thresholdNanos) {
+                    long returnedNanos = probe[1] < 0 ? probe[0] : probe[0] + probe[1];
+                    recoveredNanos = Math.max(recoveredNanos, returnedNanos);
+                }
+            }
+            for (long[] probe : after)
+                if (probe[0] <= recoveredNanos && probe[1] >= 0)
+                    outcome.recoveryLatency.record(probe[1]);
+            outcome.recoveryMillis = TimeUnit.NANOSECONDS.toMillis(recoveredNanos - burstStartNanos);
+        }
+    }
+
+    private MicroService startMicroService(String group, String name, String path, int threads, int timeoutMillis,
+            LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, group);
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
+        props.setProperty(Starter.PROP_SERVICE_PATH, path);
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, String.valueOf(timeoutMillis));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(dataLength));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(dataLength));
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroBurst extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            long endNanos = System.nanoTime() + workNanos;
+            while (System.nanoTime() < endNanos)
+                Thread.onSpinWait();
+            sendResponse(requestId, null, null, null, null);
+            if (data != null) {
+                processed.increment();
+                lastProcessedNanos.accumulate(System.nanoTime());
+            }
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
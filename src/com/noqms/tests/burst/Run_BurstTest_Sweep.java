@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.burst;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.burst.Run_BurstTest_Sweep
+
+// This test can also be directly run from an IDE.
+
+public class Run_BurstTest_Sweep {
+    public static void main(String[] args) {
+        int microServices = 4;
+        int[] threadCounts = {1, 10, 100};
+        int[] timeoutMillis = {100, 1000};
+        int[] burstSizes = {10000, 30000, 100000};
+        int burstThreads = 8;
+        long quietMillis = 2000;
+        int dataLength = 100;
+        long workMicros = 50;
+
+        BurstTest test = new BurstTest(microServices, threadCounts, timeoutMillis, burstSizes, burstThreads,
+                quietMillis, dataLength, workMicros);
+        try {
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Base for hand written fixed layout codecs. Every message of a model has the same length, fields are written in
+// declaration order in big endian, and boxed fields are preceded by a presence byte so nulls survive the round trip.
+
+public abstract class BinaryCodec<T> implements Codec<T> {
+    public static final int NULLABLE_INT_BYTES = 1 + Integer.BYTES;
+    public static final int NULLABLE_LONG_BYTES = 1 + Long.BYTES;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int length;
+
+    protected BinaryCodec(int length) {
+        this.length = length;
+    }
+
+    // For a model whose layout fits in two lambdas.
+    public static <T> BinaryCodec<T> of(int length, BiConsumer<T, ByteBuffer> writer, Function<ByteBuffer, T> reader) {
+        return new BinaryCodec<T>(length) {
+            @Override
+            protected void write(T model, ByteBuffer buffer) {
+                writer.accept(model, buffer);
+            }
+
+            @Override
+            protected T read(ByteBuffer buffer) {
+                return reader.apply(buffer);
+            }
+        };
+    }
+
+    protected abstract void write(T model, ByteBuffer buffer);
+
+    protected abstract T read(ByteBuffer buffer);
+
+    @Override
+    public final byte[] encode(T model) {
+        if (length == 0)
+            return EMPTY;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        write(model, buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public final T decode(byte[] data) {
+        int dataLength = data == null ? 0 : data.length;
+        if (dataLength != length)
+            throw new IllegalArgumentException("Expected " + length + " bytes but received " + dataLength);
+        return read(ByteBuffer.wrap(data == null ? EMPTY : data));
+    }
+
+    public static void putNullableInt(ByteBuffer buffer, Integer value) {
+        buffer.put((byte)(value == null ? 0 : 1));
+        buffer.putInt(value == null ? 0 : value);
+    }
+
+    public static Integer getNullableInt(ByteBuffer buffer) {
+        boolean present = buffer.get() != 0;
+        int value = buffer.getInt();
+        return present ? value : null;
+    }
+
+    public static void putNullableLong(ByteBuffer buffer, Long value) {
+        buffer.put((byte)(value == null ? 0 : 1));
+        buffer.putLong(value == null ? 0 : value);
+    }
+
+    public static Long getNullableLong(ByteBuffer buffer) {
+        boolean present = buffer.get() != 0;
+        long value = buffer.getLong();
+        return present ? value : null;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import java.lang.management.ManagementFactory;
+
+// Microbenchmark for one model and codec: nanoseconds and allocated bytes per encode and per decode, plus the encoded
+// size. Each measurement repeats a timed batch several times after a warmup long enough for the JIT to settle, and
+// reports the best batch. Allocations come from the per-thread allocation counter, so run single threaded.
+
+public class CodecBenchmark {
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory
+            .getThreadMXBean();
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final int opsPerIteration;
+    private volatile int sink;
+
+    public CodecBenchmark(int warmupIterations, int measureIterations, int opsPerIteration) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.opsPerIteration = opsPerIteration;
+    }
+
+    public static class Case<T> {
+        private final String modelName;
+        private final CodecType codecType;
+        private final Codec<T> codec;
+        private final T model;
+
+        public Case(String modelName, CodecType codecType, Codec<T> codec, T model) {
+            this.modelName = modelName;
+            this.codecType = codecType;
+            this.codec = codec;
+            this.model = model;
+        }
+    }
+
+    public <T> String run(Case<T> benchmarkCase) {
+        Codec<T> codec = benchmarkCase.codec;
+        byte[] data = codec.encode(benchmarkCase.model);
+
+        for (int ix = 0; ix < warmupIterations; ix++) {
+            encode(codec, benchmarkCase.model);
+            decode(codec, data);
+        }
+
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        long encodeBytes = Long.MAX_VALUE;
+        long decodeBytes = Long.MAX_VALUE;
+        for (int ix = 0; ix < measureIterations; ix++) {
+            long[] encodeResult = encode(codec, benchmarkCase.model);
+            long[] decodeResult = decode(codec, data);
+            encodeNanos = Math.min(encodeNanos, encodeResult[0]);
+            encodeBytes = Math.min(encodeBytes, encodeResult[1]);
+            decodeNanos = Math.min(decodeNanos, decodeResult[0]);
+            decodeBytes = Math.min(decodeBytes, decodeResult[1]);
+        }
+
+        return "model=" + benchmarkCase.modelName + " codec=" + benchmarkCase.codecType.getName() + " encodedBytes="
+                + data.length + " encodeNanosPerOp=" + perOp(encodeNanos) + " decodeNanosPerOp=" + perOp(decodeNanos)
+                + " encodeAllocBytesPerOp=" + perOp(encodeBytes) + " decodeAllocBytesPerOp=" + perOp(decodeBytes);
+    }
+
+    private <T> long[] encode(Codec<T> codec, T model) {
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        int hash = 0;
+        for (int ix = 0; ix < opsPerIteration; ix++)
+            hash += codec.encode(model).length;
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        sink += hash;
+        return new long[] {nanos, bytes};
+    }
+
+    private <T> long[] decode(Codec<T> codec, byte[] data) {
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        int hash = 0;
+        for (int ix = 0; ix < opsPerIteration; ix++)
+            hash += System.identityHashCode(codec.decode(data));
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        sink += hash;
+        return new long[] {nanos, bytes};
+    }
+
+    private String perOp(long total) {
+        return String.format("%.1f", (double)total / opsPerIteration);
+    }
+}
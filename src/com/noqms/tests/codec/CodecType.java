@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+// The codec used by the tests is picked at run time with -Dnoqms.tests.codec=gson|gsonStream|binary (default gson).
+
+public enum CodecType {
+    GSON("gson"), GSON_STREAM("gsonStream"), BINARY("binary");
+
+    public static final String PROP_CODEC = "noqms.tests.codec";
+
+    private final String name;
+
+    private CodecType(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static CodecType fromName(String name) {
+        for (CodecType type : values())
+            if (type.name.equalsIgnoreCase(name))
+                return type;
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    public static CodecType fromSystemProperty() {
+        return fromName(System.getProperty(PROP_CODEC, GSON.name));
+    }
+}
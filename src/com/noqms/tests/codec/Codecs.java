@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+
+// Turns a CodecType into the codec for a model, so a test only has to describe its model's binary layout.
+
+public class Codecs {
+    private static final Gson gson = new Gson();
+
+    public static <T> Codec<T> create(CodecType type, Class<T> modelClass, Supplier<Codec<T>> binaryCodec) {
+        switch (type) {
+        case GSON_STREAM:
+            return new GsonStreamCodec<>(gson, modelClass);
+        case BINARY:
+            return binaryCodec.get();
+        default:
+            return new GsonCodec<>(gson, modelClass);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+
+// What the tests have always done: model to json string to bytes and back.
+
+public class GsonCodec<T> implements Codec<T> {
+    private final Gson gson;
+    private final Class<T> type;
+
+    public GsonCodec(Gson gson, Class<T> type) {
+        this.gson = gson;
+        this.type = type;
+    }
+
+    @Override
+    public byte[] encode(T model) {
+        return gson.toJson(model).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public T decode(byte[] data) {
+        return gson.fromJson(new String(data, StandardCharsets.UTF_8), type);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+// Same json as GsonCodec but streamed directly to and from the message bytes, skipping the intermediate String,
+// with the type adapter looked up once instead of per message. The JDK stream encoder and decoder each allocate
+// an 8K buffer, which costs more than the whole message, so UTF-8 is handled here by small adapters instead.
+// The writer and reader come from the Gson so they take its settings, as toJson and fromJson do: a plain JsonWriter
+// would write null fields and leave html characters unescaped, and the bytes would differ from GsonCodec's.
+// For the same reason an unpaired surrogate is written as '?', which is what String.getBytes puts in its place.
+
+public class GsonStreamCodec<T> implements Codec<T> {
+    private final Gson gson;
+    private final TypeAdapter<T> adapter;
+
+    public GsonStreamCodec(Gson gson, Class<T> type) {
+        this.gson = gson;
+        this.adapter = gson.getAdapter(type);
+    }
+
+    @Override
+    public byte[] encode(T model) {
+        Utf8Writer out = new Utf8Writer();
+        try (JsonWriter writer = gson.newJsonWriter(out)) {
+            adapter.write(writer, model);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] data) {
+        try (JsonReader reader = gson.newJsonReader(new Utf8Reader(data))) {
+            return adapter.read(reader);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static class Utf8Writer extends Writer {
+        private static final byte UNPAIRED_SURROGATE = '?';
+
+        private byte[] bytes = new byte[64];
+        private int length;
+        private char highSurrogate;
+
+        @Override
+        public void write(char[] chars, int offset, int count) {
+            ensureCapacity(length + 3 * count + 1);
+            for (int ix = offset; ix < offset + count; ix++)
+                encode(chars[ix]);
+        }
+
+        @Override
+        public void write(String text, int offset, int count) {
+            ensureCapacity(length + 3 * count + 1);
+            for (int ix = offset; ix < offset + count; ix++)
+                encode(text.charAt(ix));
+        }
+
+        @Override
+        public void write(int ch) {
+            ensureCapacity(length + 4);
+            encode((char)ch);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        // Up to 3 bytes per char plus 1, as a surrogate pair is written when its second char comes in and an unpaired
+        // high surrogate when the char after it does.
+        private void encode(char ch) {
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(ch)) {
+                    int codePoint = Character.toCodePoint(high, ch);
+                    bytes[length++] = (byte)(0xf0 | (codePoint >> 18));
+                    bytes[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                    bytes[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                    bytes[length++] = (byte)(0x80 | (codePoint & 0x3f));
+                    return;
+                }
+                bytes[length++] = UNPAIRED_SURROGATE;
+            }
+            if (ch < 0x80) {
+                bytes[length++] = (byte)ch;
+            } else if (ch < 0x800) {
+                bytes[length++] = (byte)(0xc0 | (ch >> 6));
+                bytes[length++] = (byte)(0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch)) {
+                highSurrogate = ch;
+            } else if (Character.isLowSurrogate(ch)) {
+                bytes[length++] = UNPAIRED_SURROGATE;
+            } else {
+                bytes[length++] = (byte)(0xe0 | (ch >> 12));
+                bytes[length++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+                bytes[length++] = (byte)(0x80 | (ch & 0x3f));
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+        }
+
+        private byte[] toByteArray() {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                ensureCapacity(length + 1);
+                bytes[length++] = UNPAIRED_SURROGATE;
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static class Utf8Reader extends Reader {
+        private final byte[] bytes;
+        private int position;
+        private char pendingLowSurrogate;
+
+        private Utf8Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int count) {
+            if (count == 0)
+                return 0;
+            int read = 0;
+            if (pendingLowSurrogate != 0) {
+                chars[offset + read++] = pendingLowSurrogate;
+                pendingLowSurrogate = 0;
+            } else if (position >= bytes.length)
+                return -1;
+            while (read < count && position < bytes.length) {
+                int b = bytes[position] & 0xff;
+                if (b < 0x80) {
+                    chars[offset + read++] = (char)b;
+                    position++;
+                } else if (b < 0xe0) {
+                    chars[offset + read++] = (char)(((b & 0x1f) << 6) | (bytes[position + 1] & 0x3f));
+                    position += 2;
+                } else if (b < 0xf0) {
+                    chars[offset + read++] = (char)(((b & 0x0f) << 12) | ((bytes[position + 1] & 0x3f) << 6)
+                            | (bytes[position + 2] & 0x3f));
+                    position += 3;
+                } else {
+                    int codePoint = ((b & 0x07) << 18) | ((bytes[position + 1] & 0x3f) << 12)
+                            | ((bytes[position + 2] & 0x3f) << 6) | (bytes[position + 3] & 0x3f);
+                    chars[offset + read++] = Character.highSurrogate(codePoint);
+                    if (read < count)
+                        chars[offset + read++] = Character.lowSurrogate(codePoint);
+                    else
+                        pendingLowSurrogate = Character.lowSurrogate(codePoint); // returned first by the next read
+                    position += 4;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.codec;
+
+import com.noqms.tests.deadline.DeadlineTest;
+import com.noqms.tests.distribution.DistributionTest;
+import com.noqms.tests.interaction.InteractionTest;
+import com.noqms.tests.tweedle.TweedleCodecs;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.codec.Run_CodecBenchmark
+
+// This test can also be directly run from an IDE.
+
+public class Run_CodecBenchmark {
+    public static void main(String[] args) {
+        int warmupIterations = 20;
+        int measureIterations = 10;
+        int opsPerIteration = 100000;
+
+        CodecBenchmark benchmark = new CodecBenchmark(warmupIterations, measureIterations, opsPerIteration);
+        for (CodecType type : CodecType.values()) {
+            System.out.println(benchmark.run(DistributionTest.createCodecBenchmarkCase(type)));
+            System.out.println(benchmark.run(InteractionTest.createCodecBenchmarkCase(type)));
+            System.out.println(benchmark.run(TweedleCodecs.createRequestBenchmarkCase(type)));
+            System.out.println(benchmark.run(TweedleCodecs.createResponseBenchmarkCase(type)));
+            System.out.println(benchmark.run(DeadlineTest.createCodecBenchmarkCase(type)));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.coldstart;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.Statistics;
+
+// Measures cold start the way a replica spun up on demand sees it: from launching a fresh JVM running
+// com.noqms.SimpleRunner to the first request it serves, as seen by a probe service in this process. The probe
+// sends to the new service every millisecond until a response comes back. The first and second round trips are
+// reported too, since the first requests run interpreted code on a cold service.
+// Each launch is made with and without an application class data sharing archive of the noqms, gson and test
+// classes. The archive is made by a training launch with -XX:ArchiveClassesAtExit (JDK 13 or later) that serves some
+// requests and is then stopped. Only classes loaded from jar files are archived, so run this from the jars rather
+// than from an IDE's class directories to see the difference.
+
+public class ColdStartTest {
+    private static final long LAUNCH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int TRAINING_REQUESTS = 1000;
+
+    private final int launches;
+    private final Path archiveFile;
+    private MicroService probe;
+    private int serviceNumber;
+
+    public ColdStartTest(int launches, Path archiveFile) {
+        this.launches = launches;
+        this.archiveFile = archiveFile;
+    }
+
+    public void run() throws Exception {
+        probe = startMicroProbe(new MyLogListener());
+
+        Files.deleteIfExists(archiveFile);
+        Sample training = launch("training", Arrays.asList("-XX:ArchiveClassesAtExit=" + archiveFile),
+                TRAINING_REQUESTS);
+        System.out.println(training);
+        if (!Files.exists(archiveFile))
+            throw new IllegalStateException("The training launch wrote no archive to " + archiveFile
+                    + " - application class data sharing archives need JDK 13 or later");
+        System.out.println("archive=" + archiveFile + " archiveKB=" + Files.size(archiveFile) / 1024);
+
+        // alternate the two so that drift in the machine's state affects both alike
+        List<Sample> noCds = new ArrayList<>();
+        List<Sample> appCds = new ArrayList<>();
+        for (int launch = 1; launch <= launches; launch++) {
+            noCds.add(launch("noCds", new ArrayList<>(), 1));
+            System.out.println(noCds.get(noCds.size() - 1));
+            appCds.add(launch("appCds", Arrays.asList("-XX:SharedArchiveFile=" + archiveFile), 1));
+            System.out.println(appCds.get(appCds.size() - 1));
+        }
+
+        double[] noCdsMillis = noCds.stream().mapToDouble(sample -> sample.launchToServedMillis).toArray();
+        double[] appCdsMillis = appCds.stream().mapToDouble(sample -> sample.launchToServedMillis).toArray();
+        double[] noCdsFirstMicros = noCds.stream().mapToDouble(sample -> sample.firstRequestMicros).toArray();
+        double[] appCdsFirstMicros = appCds.stream().mapToDouble(sample -> sample.firstRequestMicros).toArray();
+        double savingMillis = Statistics.mean(noCdsMillis) - Statistics.mean(appCdsMillis);
+        System.out.println(String.format("launches=%d noCdsLaunchToServedMillis=%.0f+-%.0f "
+                + "appCdsLaunchToServedMillis=%.0f+-%.0f savingMillis=%.0f savingPercent=%.1f "
+                + "noCdsFirstRequestMicros=%.0f appCdsFirstRequestMicros=%.0f", launches,
+                Statistics.mean(noCdsMillis), Statistics.confidence95(noCdsMillis), Statistics.mean(appCdsMillis),
+                Statistics.confidence95(appCdsMillis), savingMillis, 100 * savingMillis / Statistics.mean(noCdsMillis),
+                Statistics.mean(noCdsFirstMicros), Statistics.mean(appCdsFirstMicros)));
+        new BenchmarkResult().put("noCdsLaunchToServedMillis", Statistics.mean(noCdsMillis))
+                .put("appCdsLaunchToServedMillis", Statistics.mean(appCdsMillis))
+                .put("noCdsFirstRequestMicros", Statistics.mean(noCdsFirstMicros))
+                .put("appCdsFirstRequestMicros", Statistics.mean(appCdsFirstMicros)).print();
+    }
+
+    private static class Sample {
+        private final String mode;
+        private final String serviceName;
+        private long launchToServedMillis;
+        private long constructedUptimeMillis = -1;
+        private long firstRequestMicros;
+        private long secondRequestMicros;
+
+        private Sample(String mode, String serviceName) {
+            this.mode = mode;
+            this.serviceName = serviceName;
+        }
+
+        @Override
+        public String toString() {
+            return "mode=" + mode + " service=" + serviceName + " launchToServedMillis=" + launchToServedMillis
+                    + " constructedUptimeMillis=" + constructedUptimeMillis + " firstRequestMicros="
+                    + firstRequestMicros + " secondRequestMicros=" + secondRequestMicros;
+        }
+    }
+
+    // Every launch gets a service name of its own so the probe never reaches an earlier, stopping instance.
+    private Sample launch(String mode, List<String> jvmOptions, int requests) throws Exception {
+        String serviceName = "Cold#" + (++serviceNumber);
+        Sample sample = new Sample(mode, serviceName);
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(getClassPath());
+        command.add("com.noqms.SimpleRunner");
+        command.add("noqms.groupName=ColdStartTest");
+        command.add("noqms.serviceName=" + serviceName);
+        command.add("noqms.servicePath=com.noqms.tests.coldstart.ColdStartTest$MicroCold");
+        command.add("noqms.threads=1");
+        command.add("noqms.timeoutMillis=1000");
+        command.add("noqms.maxMessageOutBytes=100");
+        command.add("noqms.maxMessageInBytes=100");
+
+        long launchNanos = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Thread output = new Thread(() -> readOutput(process, sample));
+        output.setDaemon(true);
+        output.start();
+        try {
+            long sendNanos;
+            while (true) {
+                if (!process.isAlive())
+                    throw new IllegalStateException(serviceName + " exited with " + process.exitValue());
+                if (System.nanoTime() - launchNanos > LAUNCH_TIMEOUT_NANOS)
+                    throw new IllegalStateException(serviceName + " served nothing within "
+                            + TimeUnit.NANOSECONDS.toSeconds(LAUNCH_TIMEOUT_NANOS) + " seconds");
+                sendNanos = System.nanoTime();
+                ResponseFuture responseFuture = probe.sendRequestExpectResponse(serviceName, null);
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok && !responseFuture.await().timedOut)
+                    break;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            long servedNanos = System.nanoTime();
+            sample.launchToServedMillis = TimeUnit.NANOSECONDS.toMillis(servedNanos - launchNanos);
+            sample.firstRequestMicros = TimeUnit.NANOSECONDS.toMicros(servedNanos - sendNanos);
+            for (int request = 2; request <= Math.max(2, requests); request++) {
+                sendNanos = System.nanoTime();
+                ResponseFuture responseFuture = probe.sendRequestExpectResponse(serviceName, null);
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok)
+                    responseFuture.await();
+                if (request == 2)
+                    sample.secondRequestMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sendNanos);
+            }
+        } finally {
+            process.destroy(); // a normal exit, so a training launch writes its archive
+            if (!process.waitFor(30, TimeUnit.SECONDS))
+                process.destroyForcibly().waitFor();
+        }
+        return sample;
+    }
+
+    private static void readOutput(Process process, Sample sample) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(sample.serviceName + " " + line);
+                if (line.startsWith(MicroCold.CONSTRUCTED))
+                    sample.constructedUptimeMillis = Long.parseLong(line.substring(MicroCold.CONSTRUCTED.length()));
+            }
+        } catch (Exception ex) {
+        }
+    }
+
+    // The children run from the class path even when this test runs from the module path.
+    private static String getClassPath() {
+        String classPath = System.getProperty("java.class.path");
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath == null || modulePath.isEmpty())
+            return classPath;
+        if (classPath == null || classPath.isEmpty())
+            return modulePath;
+        return classPath + File.pathSeparator + modulePath;
+    }
+
+    private MicroService startMicroProbe(LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "ColdStartTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Probe");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.coldstart.ColdStartTest$MicroProbe");
+        props.setProperty(Starter.PROP_THREADS, "1");
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "1000");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "100");
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroProbe extends MicroService {
+    }
+
+    // Runs in the launched JVM and reports how long after JVM start noqms got as far as constructing it.
+    public static class MicroCold extends MicroService {
+        private static final String CONSTRUCTED = "coldstart constructedUptimeMillis=";
+
+        public MicroCold() {
+            System.out.println(CONSTRUCTED + ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            sendResponse(requestId, null, null, null, null);
+        }
+    }
+
+    // A launched service that is not up yet is expected to show as not responsive while the probe waits for it.
+    public static class MyLogListener implements LogListener {
+        @Override
+        public void debug(String text) {
+            System.out.println(text);
+        }
+
+        @Override
+        public void info(String text) {
+            System.out.println(text);
+        }
+
+        @Override
+        public void warn(String text) {
+            System.out.println(text);
+        }
+
+        @Override
+        public void error(String text, Throwable th) {
+            System.err.println(text);
+            sleepMillis(100);
+            System.exit(-1); // end the test
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.coldstart;
+
+import java.nio.file.Paths;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.coldstart.Run_ColdStartTest_AppCds <archive file>
+// archive file: where the class data sharing archive is written (default ColdStartTest.jsa)
+
+// This test can also be run from an IDE, but only classes in jar files get into the archive.
+
+public class Run_ColdStartTest_AppCds {
+    public static void main(String[] args) {
+        int launches = 10;
+        String archiveFile = args.length > 0 ? args[0] : "ColdStartTest.jsa";
+
+        ColdStartTest test = new ColdStartTest(launches, Paths.get(archiveFile));
+        try {
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.compression;
+
+// Optional compression stage for message payloads. Compressed payloads carry the uncompressed length up front
+// so the receiver can decompress into an exactly sized array.
+// Names: none, lz, deflate1 .. deflate9
+
+public interface Compressor {
+    String getName();
+
+    int maxCompressedLength(int length);
+
+    byte[] compress(byte[] data);
+
+    byte[] decompress(byte[] data);
+
+    public static Compressor fromName(String name) {
+        if (name.equalsIgnoreCase("none"))
+            return new NoCompressor();
+        if (name.equalsIgnoreCase("lz"))
+            return new LzCompressor();
+        if (name.toLowerCase().startsWith("deflate")) {
+            String level = name.substring("deflate".length());
+            return new DeflateCompressor(level.isEmpty() ? 1 : Integer.parseInt(level));
+        }
+        throw new IllegalArgumentException("Unknown compressor: " + name);
+    }
+
+    static void putLength(byte[] data, int length) {
+        data[0] = (byte)(length >>> 24);
+        data[1] = (byte)(length >>> 16);
+        data[2] = (byte)(length >>> 8);
+        data[3] = (byte)length;
+    }
+
+    static int getLength(byte[] data) {
+        return ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.compression;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// java.util.zip at a given level. Deflaters and inflaters hold native memory and are expensive to create, so each
+// thread keeps one of each and resets it between messages.
+
+public class DeflateCompressor implements Compressor {
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public DeflateCompressor(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Deflate level must be 1 to 9: " + level);
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public String getName() {
+        return "deflate" + level;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // stored blocks cost 5 bytes per 16K plus the zlib header and trailer
+        return 4 + length + 5 * (length / 16383 + 1) + 6;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] compressed = new byte[maxCompressedLength(data.length)];
+        int length = 4;
+        while (!deflater.finished())
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        Compressor.putLength(compressed, data.length);
+        return Arrays.copyOf(compressed, length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, 4, data.length - 4);
+        byte[] decompressed = new byte[Compressor.getLength(data)];
+        try {
+            int length = 0;
+            while (length < decompressed.length && !inflater.finished())
+                length += inflater.inflate(decompressed, length, decompressed.length - length);
+        } catch (DataFormatException ex) {
+            throw new IllegalArgumentException("Corrupt deflate payload", ex);
+        }
+        return decompressed;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.compression;
+
+import java.util.Arrays;
+
+// Fast pure Java LZ77 in the style of LZ4: greedy matching through a single-entry hash table of 4 byte sequences,
+// no entropy coding. Each sequence is a token byte (literal length high nibble, match length - 4 low nibble, 15 means
+// more length bytes follow), the literals, a 2 byte little endian match offset and any extra match length bytes.
+// The last sequence has literals only. Incompressible input is skipped over at an increasing stride.
+
+public class LzCompressor implements Compressor {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 14;
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return 4 + length + length / 255 + 16;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        byte[] compressed = new byte[maxCompressedLength(data.length)];
+        Compressor.putLength(compressed, data.length);
+        int[] table = new int[1 << HASH_BITS]; // position + 1, zero is empty
+        int out = 4;
+        int anchor = 0;
+        int in = 0;
+        int lastHashable = data.length - MIN_MATCH;
+
+        while (in <= lastHashable) {
+            int sequence = readInt(data, in);
+            int hash = (sequence * 0x9e3779b1) >>> (Integer.SIZE - HASH_BITS);
+            int match = table[hash] - 1;
+            table[hash] = in + 1;
+            if (match >= 0 && in - match <= MAX_OFFSET && readInt(data, match) == sequence) {
+                int remaining = data.length - in - MIN_MATCH;
+                int mismatch = Arrays.mismatch(data, match + MIN_MATCH, match + MIN_MATCH + remaining, data,
+                        in + MIN_MATCH, in + MIN_MATCH + remaining);
+                int matchLength = MIN_MATCH + (mismatch < 0 ? remaining : mismatch);
+                out = writeSequence(compressed, out, data, anchor, in - anchor, in - match, matchLength);
+                in += matchLength;
+                anchor = in;
+            } else {
+                in += 1 + ((in - anchor) >>> 6);
+            }
+        }
+
+        out = writeSequence(compressed, out, data, anchor, data.length - anchor, 0, 0);
+        return Arrays.copyOf(compressed, out);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        byte[] decompressed = new byte[Compressor.getLength(data)];
+        int in = 4;
+        int out = 0;
+        while (true) {
+            int token = data[in++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int more;
+                do {
+                    more = data[in++] & 0xff;
+                    literalLength += more;
+                } while (more == 255);
+            }
+            System.arraycopy(data, in, decompressed, out, literalLength);
+            in += literalLength;
+            out += literalLength;
+            if (in >= data.length)
+                break;
+
+            int offset = (data[in] & 0xff) | ((data[in + 1] & 0xff) << 8);
+            in += 2;
+            int matchLength = (token & 0x0f);
+            if (matchLength == 15) {
+                int more;
+                do {
+                    more = data[in++] & 0xff;
+                    matchLength += more;
+                } while (more == 255);
+            }
+            matchLength += MIN_MATCH;
+            // an offset shorter than the match repeats the pattern, copied in chunks that double each pass
+            int from = out - offset;
+            while (matchLength > 0) {
+                int chunk = Math.min(matchLength, out - from);
+                System.arraycopy(decompressed, from, decompressed, out, chunk);
+                out += chunk;
+                matchLength -= chunk;
+            }
+        }
+        return decompressed;
+    }
+
+    private static int writeSequence(byte[] compressed, int out, byte[] data, int literalStart, int literalLength,
+            int offset, int matchLength) {
+        int tokenPosition = out++;
+        int token = Math.min(literalLength, 15) << 4;
+        if (literalLength >= 15)
+            out = writeLength(compressed, out, literalLength - 15);
+        System.arraycopy(data, literalStart, compressed, out, literalLength);
+        out += literalLength;
+
+        if (matchLength > 0) {
+            compressed[out++] = (byte)offset;
+            compressed[out++] = (byte)(offset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15)
+                out = writeLength(compressed, out, extra - 15);
+        }
+        compressed[tokenPosition] = (byte)token;
+        return out;
+    }
+
+    private static int writeLength(byte[] compressed, int out, int length) {
+        while (length >= 255) {
+            compressed[out++] = (byte)255;
+            length -= 255;
+        }
+        compressed[out++] = (byte)length;
+        return out;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xff) | ((data[position + 1] & 0xff) << 8) | ((data[position + 2] & 0xff) << 16)
+                | ((data[position + 3] & 0xff) << 24);
+    }
+}
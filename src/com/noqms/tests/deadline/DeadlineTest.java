@@ -0,0 +1,321 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.deadline;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.codec.BinaryCodec;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.codec.CodecBenchmark;
+import com.noqms.tests.codec.CodecType;
+import com.noqms.tests.codec.Codecs;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.OpenLoopSender;
+import com.noqms.tests.util.ResponseAwaiter;
+import com.noqms.tests.util.SteadyStateMeter;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// A chain of services Hop#1 .. Hop#n, each doing serviceMillis of work and then calling the next and waiting for its
+// answer, offered more requests than it can serve. The caller's deadline (send time plus its timeout) travels in the
+// message, and with shedding on a hop answers CODE_EXPIRED without working or forwarding once it has passed.
+// The same load runs without and then with shedding, each against freshly started services in its own group, and the
+// goodput (answers within the deadline per second) of the two is compared. Work that finishes after the deadline is
+// counted as wasted. Answers are timed when they arrive, by a ResponseAwaiter.
+
+public class DeadlineTest {
+    public static final int CODE_EXPIRED = 504;
+    private static final Codec<Model> codec = createCodec(CodecType.fromSystemProperty());
+    private static volatile boolean shedding;
+    private static volatile int serviceMillis;
+    private static volatile HopCounters[] hopCounters;
+
+    private final int hops;
+    private final int threadsPerHop;
+    private final int requestsPerMilliSecond;
+    private final int timeoutMillis;
+
+    public DeadlineTest(int hops, int threadsPerHop, int serviceMillis, int requestsPerMilliSecond,
+            int timeoutMillis) {
+        this.hops = hops;
+        this.threadsPerHop = threadsPerHop;
+        this.requestsPerMilliSecond = requestsPerMilliSecond;
+        this.timeoutMillis = timeoutMillis;
+        DeadlineTest.serviceMillis = serviceMillis;
+    }
+
+    public void run() throws Exception {
+        System.out.println("codec=" + CodecType.fromSystemProperty().getName() + " hops=" + hops + " threadsPerHop="
+                + threadsPerHop + " serviceMillis=" + serviceMillis + " requestsPerMilliSecond="
+                + requestsPerMilliSecond + " timeoutMillis=" + timeoutMillis);
+        CountingLogListener logListener = new CountingLogListener(100000); // timeouts are the point of the test
+        BenchmarkResult benchmarkResult = new BenchmarkResult();
+        Outcome withoutShedding = runPhase(false, logListener);
+        withoutShedding.put("noShedding", benchmarkResult);
+        Outcome withShedding = runPhase(true, logListener);
+        withShedding.put("shedding", benchmarkResult);
+        long gainPercent = withoutShedding.goodputPerSecond == 0 ? 0
+                : 100 * (withShedding.goodputPerSecond - withoutShedding.goodputPerSecond)
+                        / withoutShedding.goodputPerSecond;
+        System.out.println("goodputGainPercent=" + gainPercent);
+        logListener.close();
+        System.out.println(logListener);
+        benchmarkResult.put("goodputGainPercent", gainPercent).put("warnings", logListener.getWarnings()).print();
+    }
+
+    private Outcome runPhase(boolean shedding, CountingLogListener logListener) throws Exception {
+        String phase = shedding ? "shedding" : "noShedding";
+        String group = "DeadlineTest_" + phase;
+        DeadlineTest.shedding = shedding;
+        HopCounters[] counters = new HopCounters[hops];
+        for (int ix = 0; ix < hops; ix++)
+            counters[ix] = new HopCounters();
+        hopCounters = counters;
+
+        MicroService incoming = startMicroService(group, "Incoming",
+                "com.noqms.tests.deadline.DeadlineTest$MicroIncoming", 1, logListener);
+        MicroService[] services = new MicroService[hops];
+        for (int ix = 1; ix <= hops; ix++)
+            services[ix - 1] = startMicroService(group, "Hop#" + ix, "com.noqms.tests.deadline.DeadlineTest$MicroHop",
+                    threadsPerHop, logListener);
+
+        Phase current = new Phase(incoming);
+        current.sender.start();
+
+        AtomicReference<long[]> measureStart = new AtomicReference<>();
+        SteadyStateMeter meter = new SteadyStateMeter("DeadlineTest " + phase, current.answered::sum,
+                current.interval);
+        meter.reportLogEvents(logListener);
+        meter.onMeasureStart(() -> measureStart.set(current.snapshot()));
+        SteadyStateMeter.Result result = meter.measure();
+        long[] measured = current.snapshot();
+        current.sender.stopSending();
+        current.awaiter.stop();
+        for (MicroService service : services)
+            service.drain();
+        incoming.drain();
+
+        Outcome outcome = new Outcome(phase, result, measureStart.get(), measured, current.awaiter.getLate());
+        System.out.println(outcome);
+        sleepMillis(2 * timeoutMillis); // let the drained services finish before the next phase
+        return outcome;
+    }
+
+    private class Phase {
+        private final LatencyHistogram interval = new LatencyHistogram();
+        private final LongAdder answered = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final ResponseAwaiter awaiter = new ResponseAwaiter("Deadline", this::answer);
+        private final OpenLoopSender sender;
+
+        private Phase(MicroService incoming) {
+            Model model = new Model();
+            model.hop = 1;
+            model.hops = hops;
+            sender = new OpenLoopSender(incoming, "Hop#1", requestsPerMilliSecond * 1000.0, () -> {
+                model.deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+                return codec.encode(model);
+            }, awaiter);
+        }
+
+        private void answer(ResponseFuture.Response response, long latencyNanos) {
+            if (response.timedOut)
+                timedOut.increment();
+            else if (response.code != null && response.code == CODE_EXPIRED)
+                expired.increment();
+            else {
+                interval.record(latencyNanos);
+                answered.increment();
+            }
+        }
+
+        // time, incoming counts and then processed, shed and wasted of each hop
+        private long[] snapshot() {
+            long[] snapshot = new long[6 + 3 * hops];
+            snapshot[0] = System.nanoTime();
+            snapshot[1] = sender.getSent();
+            snapshot[2] = answered.sum();
+            snapshot[3] = expired.sum();
+            snapshot[4] = timedOut.sum();
+            snapshot[5] = sender.getRefused();
+            HopCounters[] counters = hopCounters;
+            for (int ix = 0; ix < hops; ix++) {
+                snapshot[6 + 3 * ix] = counters[ix].processed.sum();
+                snapshot[7 + 3 * ix] = counters[ix].shed.sum();
+                snapshot[8 + 3 * ix] = counters[ix].wasted.sum();
+            }
+            return snapshot;
+        }
+    }
+
+    private class Outcome {
+        private final String phase;
+        private final SteadyStateMeter.Result result;
+        private final long[] counts;
+        private final double seconds;
+        private final long goodputPerSecond;
+        private final long lateTimed;
+
+        private Outcome(String phase, SteadyStateMeter.Result result, long[] start, long[] end, long lateTimed) {
+            this.phase = phase;
+            this.result = result;
+            this.lateTimed = lateTimed;
+            counts = new long[end.length];
+            for (int ix = 1; ix < end.length; ix++)
+                counts[ix] = end[ix] - start[ix];
+            seconds = (end[0] - start[0]) / (double)TimeUnit.SECONDS.toNanos(1);
+            goodputPerSecond = (long)(counts[2] / seconds);
+        }
+
+        private long perSecond(long count) {
+            return (long)(count / seconds);
+        }
+
+        private void put(String prefix, BenchmarkResult benchmarkResult) {
+            long processed = 0;
+            long shed = 0;
+            long wasted = 0;
+            for (int ix = 0; ix < hops; ix++) {
+                processed += counts[6 + 3 * ix];
+                shed += counts[7 + 3 * ix];
+                wasted += counts[8 + 3 * ix];
+            }
+            benchmarkResult.put(prefix + "GoodputPerSecond", goodputPerSecond)
+                    .put(prefix + "TimedOutPerSecond", perSecond(counts[4]))
+                    .put(prefix + "HopWorkPerSecond", perSecond(processed))
+                    .put(prefix + "ShedPerSecond", perSecond(shed)).put(prefix + "WastedPerSecond", perSecond(wasted))
+                    .putLatency(prefix + "Answered", result.latency);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(phase + " sentPerSecond=" + perSecond(counts[1])
+                    + " goodputPerSecond=" + goodputPerSecond + " expiredPerSecond=" + perSecond(counts[3])
+                    + " timedOutPerSecond=" + perSecond(counts[4]) + " refusedPerSecond=" + perSecond(counts[5])
+                    + " lateTimed=" + lateTimed + " warmupSeconds=" + result.warmupSeconds + " steady=" + result.steady
+                    + " latency " + result.latency.toMicrosString());
+            for (int ix = 0; ix < hops; ix++)
+                builder.append("\n").append(phase).append(" hop=Hop#").append(ix + 1).append(" processedPerSecond=")
+                        .append(perSecond(counts[6 + 3 * ix])).append(" shedPerSecond=")
+                        .append(perSecond(counts[7 + 3 * ix])).append(" wastedPerSecond=")
+                        .append(perSecond(counts[8 + 3 * ix]));
+            return builder.toString();
+        }
+    }
+
+    private static class HopCounters {
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+        private final LongAdder wasted = new LongAdder();
+    }
+
+    private static class Model {
+        private long deadlineMillis;
+        private int hop;
+        private int hops;
+    }
+
+    private static Codec<Model> createCodec(CodecType type) {
+        return Codecs.create(type, Model.class, () -> BinaryCodec.of(Long.BYTES + 2 * Integer.BYTES,
+                (model, buffer) -> buffer.putLong(model.deadlineMillis).putInt(model.hop).putInt(model.hops),
+                buffer -> {
+                    Model model = new Model();
+                    model.deadlineMillis = buffer.getLong();
+                    model.hop = buffer.getInt();
+                    model.hops = buffer.getInt();
+                    return model;
+                }));
+    }
+
+    public static CodecBenchmark.Case<?> createCodecBenchmarkCase(CodecType type) {
+        Model model = new Model();
+        model.deadlineMillis = System.currentTimeMillis();
+        model.hop = 1;
+        model.hops = 3;
+        return new CodecBenchmark.Case<>("DeadlineTest.Model", type, createCodec(type), model);
+    }
+
+    private MicroService startMicroService(String group, String name, String path, int threads,
+            LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, group);
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
+        props.setProperty(Starter.PROP_SERVICE_PATH, path);
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, String.valueOf(timeoutMillis));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "100");
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroHop extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            Model model = codec.decode(data);
+            HopCounters counters = hopCounters[model.hop - 1];
+            if (shedding && System.currentTimeMillis() >= model.deadlineMillis) {
+                counters.shed.increment();
+                sendResponse(requestId, CODE_EXPIRED, null, "Deadline passed before Hop#" + model.hop, null);
+                return;
+            }
+            sleepMillis(serviceMillis);
+            counters.processed.increment();
+            Integer code = null;
+            if (model.hop < model.hops) {
+                model.hop++;
+                ResponseFuture responseFuture = sendRequestExpectResponse("Hop#" + model.hop, codec.encode(model));
+                if (responseFuture.getRequestStatus() != RequestStatus.Ok)
+                    code = CODE_EXPIRED;
+                else {
+                    ResponseFuture.Response response = responseFuture.await();
+                    code = response.timedOut ? CODE_EXPIRED : response.code;
+                }
+            }
+            if (System.currentTimeMillis() >= model.deadlineMillis)
+                counters.wasted.increment();
+            sendResponse(requestId, code, null, null, null);
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.deadline;
+
+import com.noqms.tests.util.ForkRunner;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.deadline.Run_DeadlineTest_3Hops_Overloaded [requestsPerMilliSecond]
+// Each Hop#1 thread is held for all three hops, about 6 ms, so 4 threads serve about 650 requests a second and the
+// default of 1 request a millisecond is half as much again.
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.codec=binary to carry the deadline in the binary model instead of json.
+
+// This test can also be directly run from an IDE.
+
+public class Run_DeadlineTest_3Hops_Overloaded {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_DeadlineTest_3Hops_Overloaded.class, args))
+            return;
+
+        int hops = 3;
+        int threadsPerHop = 4;
+        int serviceMillis = 2;
+        int requestsPerMilliSecond = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int timeoutMillis = 100;
+
+        try {
+            DeadlineTest test = new DeadlineTest(hops, threadsPerHop, serviceMillis, requestsPerMilliSecond,
+                    timeoutMillis);
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -16,55 +16,192 @@
 
 package com.noqms.tests.distribution;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.google.gson.Gson;
 import com.noqms.LogListener;
 import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
 import com.noqms.Starter;
+import com.noqms.tests.codec.BinaryCodec;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.codec.CodecBenchmark;
+import com.noqms.tests.codec.CodecType;
+import com.noqms.tests.codec.Codecs;
+import com.noqms.tests.fault.Faults;
+import com.noqms.tests.fault.FaultyMicroService;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.SteadyStateMeter;
 
 // This is a self-contained test and may run many microservices in the same process. 
 // Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
 // Starting multiple microservices linearly typically takes seconds each.
 
+// Messages bounce between the instances of one service, and probe callers measure the round trip to the service
+// while they do. The first badReplicas instances start injecting faults (see Faults) when the measurement starts,
+// so the run shows how much of the load still reaches the bad instances and what they do to throughput and to the
+// tail. Every instance can also be made to misbehave at run time over JMX, as com.noqms.tests:type=Faults.
+
 public class DistributionTest {
-    private static final Gson gson = new Gson();
+    private static final Codec<Model> codec = createCodec(CodecType.fromSystemProperty());
+    private static final int PROBE_THREADS = 4;
 
     private final int microServiceInstances;
     private final int threadsPerMicroService;
     private final int messages;
+    private final int badReplicas;
+    private final String faults;
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder probeTimeouts = new LongAdder();
 
     public DistributionTest(int microServiceInstances, int threadsPerMicroService, int messages) {
+        this(microServiceInstances, threadsPerMicroService, messages, 0, "none");
+    }
+
+    public DistributionTest(int microServiceInstances, int threadsPerMicroService, int messages, int badReplicas,
+            String faults) {
+        if (badReplicas < 0 || badReplicas > microServiceInstances)
+            throw new IllegalArgumentException("Bad replicas must be between 0 and " + microServiceInstances);
+        new Faults().setSpec(faults); // fail before starting anything
         this.microServiceInstances = microServiceInstances;
         this.threadsPerMicroService = threadsPerMicroService;
         this.messages = messages;
+        this.badReplicas = badReplicas;
+        this.faults = faults;
     }
 
     public void run() throws Exception {
-        MyLogListener logListener = new MyLogListener();
-        MicroService incoming = startIncoming(logListener);
+        System.out.println("codec=" + CodecType.fromSystemProperty().getName());
+        CountingLogListener logListener = new CountingLogListener();
+        MicroService incoming = startMicroIncoming("Incoming", logListener);
+        MicroService probe = startMicroIncoming("Probe", logListener);
 
-        for (int ix = 1; ix <= microServiceInstances; ix++)
-            startMicroTest(threadsPerMicroService, logListener);
+        MicroTest[] replicas = new MicroTest[microServiceInstances];
+        for (int ix = 0; ix < microServiceInstances; ix++) {
+            MicroService service = startMicroTest(threadsPerMicroService, logListener);
+            if (!(service instanceof MicroTest))
+                throw new IllegalStateException("Unexpected service: " + service);
+            replicas[ix] = (MicroTest)service;
+            replicas[ix].getFaults().register("Distribution#" + (ix + 1));
+        }
 
-        // load up messages in the system and let them bounce around for a minute
+        // load up messages in the system and let them bounce around
 
         Model model = new Model();
-        byte[] data = gson.toJson(model).getBytes(StandardCharsets.UTF_8);
+        byte[] data = codec.encode(model);
         for (int ix = 0; ix < messages; ix += 10) {
             incoming.sendRequestExpectResponse("Distribution", data);
             sleepMillis(1);
         }
 
-        sleepMillis(TimeUnit.MINUTES.toMillis(1));
+        ProbeThread[] probeThreads = new ProbeThread[PROBE_THREADS];
+        for (int ix = 0; ix < PROBE_THREADS; ix++) {
+            probeThreads[ix] = new ProbeThread(probe, data);
+            probeThreads[ix].start();
+        }
+
+        long[] startProcessed = new long[microServiceInstances];
+        AtomicReference<long[]> measureStart = new AtomicReference<>();
+        SteadyStateMeter meter = new SteadyStateMeter("DistributionTest", () -> getProcessed(replicas), interval);
+        meter.reportLogEvents(logListener);
+        meter.onMeasureStart(() -> {
+            for (int ix = 0; ix < microServiceInstances; ix++)
+                startProcessed[ix] = replicas[ix].processed.sum();
+            for (int ix = 0; ix < badReplicas; ix++)
+                replicas[ix].getFaults().setSpec(faults);
+            measureStart.set(new long[] {System.nanoTime(), probes.sum(), probeTimeouts.sum()});
+        });
+        SteadyStateMeter.Result result = meter.measure();
+        double seconds = (System.nanoTime() - measureStart.get()[0]) / (double)TimeUnit.SECONDS.toNanos(1);
+        long probesPerSecond = (long)((probes.sum() - measureStart.get()[1]) / seconds);
+        long timeouts = probeTimeouts.sum() - measureStart.get()[2];
+        for (int ix = 0; ix < PROBE_THREADS; ix++)
+            probeThreads[ix].stop = true;
+
+        long totalProcessed = 0;
+        long[] processed = new long[microServiceInstances];
+        for (int ix = 0; ix < microServiceInstances; ix++) {
+            processed[ix] = replicas[ix].processed.sum() - startProcessed[ix];
+            totalProcessed += processed[ix];
+        }
+        StringBuilder shares = new StringBuilder("replicaSharePercent");
+        long badProcessed = 0;
+        for (int ix = 0; ix < microServiceInstances; ix++) {
+            shares.append(' ').append(replicas[ix].getFaults().getInstanceName()).append('=')
+                    .append(totalProcessed == 0 ? 0 : 100 * processed[ix] / totalProcessed);
+            if (ix < badReplicas)
+                badProcessed += processed[ix];
+        }
+        long badSharePercent = totalProcessed == 0 ? 0 : 100 * badProcessed / totalProcessed;
+
+        System.out.println("replicas=" + microServiceInstances + " badReplicas=" + badReplicas + " faults=" + faults
+                + " hopsPerSecond=" + (long)result.ratePerSecond + " probesPerSecond=" + probesPerSecond
+                + " probeTimeouts=" + timeouts + " badSharePercent=" + badSharePercent + " warmupSeconds="
+                + result.warmupSeconds + " steady=" + result.steady + " probeLatency "
+                + result.latency.toMicrosString());
+        System.out.println(shares);
+        for (int ix = 0; ix < badReplicas; ix++)
+            System.out.println(replicas[ix].getFaults());
+        System.out.println(logListener);
+        new BenchmarkResult().put("hopsPerSecond", (long)result.ratePerSecond).put("probesPerSecond", probesPerSecond)
+                .putLatency("probe", result.latency).put("probeTimeouts", timeouts)
+                .put("badSharePercent", badSharePercent).put("warnings", logListener.getWarnings()).print();
+    }
+
+    private static long getProcessed(MicroTest[] replicas) {
+        long processed = 0;
+        for (MicroTest replica : replicas)
+            processed += replica.processed.sum();
+        return processed;
+    }
+
+    // Closed loop callers whose requests are answered but not forwarded, so they measure without adding to the bounce.
+    private class ProbeThread extends Thread {
+        private volatile boolean stop;
+        private final MicroService probe;
+        private final byte[] data;
+
+        public ProbeThread(MicroService probe, byte[] data) {
+            this.probe = probe;
+            this.data = data;
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (!stop) {
+                long startNanos = System.nanoTime();
+                ResponseFuture responseFuture = probe.sendRequestExpectResponse("Distribution", data);
+                if (responseFuture.getRequestStatus() != RequestStatus.Ok) {
+                    sleepMillis(1);
+                    continue;
+                }
+                ResponseFuture.Response response = responseFuture.await();
+                interval.record(System.nanoTime() - startNanos);
+                probes.increment();
+                if (response.timedOut)
+                    probeTimeouts.increment();
+            }
+        }
     }
 
     private static class Model {
     }
 
-    private void startMicroTest(int threads, LogListener logListener) throws Exception {
+    private static Codec<Model> createCodec(CodecType type) {
+        return Codecs.create(type, Model.class, () -> BinaryCodec.of(0, (model, buffer) -> {}, buffer -> new Model()));
+    }
+
+    public static CodecBenchmark.Case<?> createCodecBenchmarkCase(CodecType type) {
+        return new CodecBenchmark.Case<>("DistributionTest.Model", type, createCodec(type), new Model());
+    }
+
+    private MicroService startMicroTest(int threads, LogListener logListener) throws Exception {
         Properties props = new Properties();
         props.setProperty(Starter.PROP_GROUP_NAME, "DistributionTest");
         props.setProperty(Starter.PROP_SERVICE_NAME, "Distribution");
@@ -73,13 +210,13 @@ public class DistributionTest {
         props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
         props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "100");
         props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "100");
-        Starter.start(props, logListener);
+        return Starter.start(props, logListener);
     }
 
-    private MicroService startIncoming(LogListener logListener) throws Exception {
+    private MicroService startMicroIncoming(String name, LogListener logListener) throws Exception {
         Properties props = new Properties();
         props.setProperty(Starter.PROP_GROUP_NAME, "DistributionTest");
-        props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
         props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.distribution.DistributionTest$MicroIncoming");
         props.setProperty(Starter.PROP_THREADS, "1");
         props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
@@ -91,39 +228,18 @@ public class DistributionTest {
     public static class MicroIncoming extends MicroService {
     }
 
-    public static class MicroTest extends MicroService {
-        @Override
-        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
-            sendResponse(requestId, null, null, null, null);
-            Model model = gson.fromJson(new String(data, StandardCharsets.UTF_8), Model.class);
-            data = gson.toJson(model).getBytes(StandardCharsets.UTF_8);
-            sendRequestExpectResponse("Distribution", data);
-        }
-    }
-
-    public static class MyLogListener implements LogListener {
-        @Override
-        public void debug(String text) {
-            System.out.println(text);
-        }
-        
-        @Override
-        public void info(String text) {
-            System.out.println(text);
-        }
+    public static class MicroTest extends FaultyMicroService {
+        private final LongAdder processed = new LongAdder();
 
         @Override
-        public void warn(String text) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
-        }
-
-        @Override
-        public void error(String text, Throwable th) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
+        protected void processFaultyRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            processed.increment();
+            sendFaultyResponse(requestId, null, null, null, null);
+            if ("Probe".equals(serviceNameFrom))
+                return;
+            Model model = codec.decode(data);
+            data = codec.encode(model);
+            sendRequestExpectResponse("Distribution", data);
         }
     }
 
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.distribution;
+
+import com.noqms.tests.util.ForkRunner;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command, with and without faults to compare:
+// java -server -cp * com.noqms.tests.distribution.Run_DistributionTest_OneBadReplica [faults]
+// faults: none, or a comma separated list of straggler:<probability>:<millis>, drop:<probability>,
+// stall:<probability>:<millis>, slow:<millis> (default straggler:0.1:50,drop:0.01,stall:0.001:2000)
+// One of the 10 instances turns bad when the measurement starts. Any instance can be changed while the test runs,
+// with jconsole, under com.noqms.tests:type=Faults.
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+
+// This test can also be directly run from an IDE.
+
+public class Run_DistributionTest_OneBadReplica {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_DistributionTest_OneBadReplica.class, args))
+            return;
+
+        int microServiceInstances = 10;
+        int threadsPerMicroService = 1;
+        int messages = 100;
+        int badReplicas = 1;
+        String faults = args.length > 0 ? args[0] : "straggler:0.1:50,drop:0.01,stall:0.001:2000";
+
+        try {
+            DistributionTest test = new DistributionTest(microServiceInstances, threadsPerMicroService, messages,
+                    badReplicas, faults);
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.fault;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+// The faults one service instance injects, changeable at any time from the test or over JMX once registered.
+// Spec: none, or a comma separated list of
+//   straggler:<probability>:<millis> - the response is sent that much later, without holding the worker thread
+//   drop:<probability>               - the response is never sent, so the caller times out
+//   stall:<probability>:<millis>     - the worker thread is held that long before it processes the request
+//   slow:<millis>                    - every request is held that long, a consumer that can't keep up
+// e.g. straggler:0.1:50,drop:0.01 delays one response in ten by 50 ms and drops one in a hundred.
+
+public class Faults implements FaultsMXBean {
+    private static final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Faults");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile String instanceName = "";
+    private volatile double stragglerProbability;
+    private volatile int stragglerMillis;
+    private volatile double dropProbability;
+    private volatile double stallProbability;
+    private volatile int stallMillis;
+    private volatile int slowMillis;
+    private final LongAdder stragglers = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder slowed = new LongAdder();
+
+    public void register(String instanceName) {
+        this.instanceName = instanceName;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("com.noqms.tests:type=Faults,name=" + ObjectName.quote(instanceName)));
+        } catch (Exception ex) {
+            System.err.println("Faults for " + instanceName + " not registered with JMX: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    @Override
+    public synchronized String getSpec() {
+        StringBuilder builder = new StringBuilder();
+        if (stragglerProbability > 0)
+            builder.append(",straggler:").append(stragglerProbability).append(':').append(stragglerMillis);
+        if (dropProbability > 0)
+            builder.append(",drop:").append(dropProbability);
+        if (stallProbability > 0)
+            builder.append(",stall:").append(stallProbability).append(':').append(stallMillis);
+        if (slowMillis > 0)
+            builder.append(",slow:").append(slowMillis);
+        return builder.length() == 0 ? "none" : builder.substring(1);
+    }
+
+    // Replaces all faults at once; the ones not in the spec are turned off.
+    @Override
+    public synchronized void setSpec(String spec) {
+        double newStragglerProbability = 0;
+        int newStragglerMillis = 0;
+        double newDropProbability = 0;
+        double newStallProbability = 0;
+        int newStallMillis = 0;
+        int newSlowMillis = 0;
+        for (String fault : spec.toLowerCase().split(",")) {
+            String[] parts = fault.trim().split(":");
+            try {
+                if (parts[0].equals("none") && parts.length == 1)
+                    continue;
+                else if (parts[0].equals("straggler") && parts.length == 3) {
+                    newStragglerProbability = probability(parts[1]);
+                    newStragglerMillis = millis(parts[2]);
+                } else if (parts[0].equals("drop") && parts.length == 2)
+                    newDropProbability = probability(parts[1]);
+                else if (parts[0].equals("stall") && parts.length == 3) {
+                    newStallProbability = probability(parts[1]);
+                    newStallMillis = millis(parts[2]);
+                } else if (parts[0].equals("slow") && parts.length == 2)
+                    newSlowMillis = millis(parts[1]);
+                else
+                    throw new IllegalArgumentException("Unknown fault: " + fault);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad fault: " + fault);
+            }
+        }
+        stragglerProbability = newStragglerProbability;
+        stragglerMillis = newStragglerMillis;
+        dropProbability = newDropProbability;
+        stallProbability = newStallProbability;
+        stallMillis = newStallMillis;
+        slowMillis = newSlowMillis;
+    }
+
+    private static double probability(String text) {
+        return probability(Double.parseDouble(text));
+    }
+
+    // Written so that NaN fails too.
+    private static double probability(double probability) {
+        if (!(probability >= 0 && probability <= 1))
+            throw new IllegalArgumentException("Probability must be between 0 and 1: " + probability);
+        return probability;
+    }
+
+    private static int millis(String text) {
+        return millis(Integer.parseInt(text));
+    }
+
+    private static int millis(int millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Millis must not be negative: " + millis);
+        return millis;
+    }
+
+    // Runs on the worker thread before the request is processed.
+    void beforeProcess() {
+        int slowMillis = this.slowMillis;
+        if (slowMillis > 0) {
+            slowed.increment();
+            sleepMillis(slowMillis);
+        }
+        if (stallProbability > 0 && ThreadLocalRandom.current().nextDouble() < stallProbability) {
+            stalls.increment();
+            sleepMillis(stallMillis);
+        }
+    }
+
+    // Runs the send now, later or never.
+    void respond(Runnable send) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (dropProbability > 0 && random.nextDouble() < dropProbability) {
+            drops.increment();
+        } else if (stragglerProbability > 0 && random.nextDouble() < stragglerProbability) {
+            stragglers.increment();
+            delayer.schedule(send, stragglerMillis, TimeUnit.MILLISECONDS);
+        } else
+            send.run();
+    }
+
+    @Override
+    public double getStragglerProbability() {
+        return stragglerProbability;
+    }
+
+    @Override
+    public synchronized void setStragglerProbability(double probability) {
+        stragglerProbability = probability(probability);
+    }
+
+    @Override
+    public int getStragglerMillis() {
+        return stragglerMillis;
+    }
+
+    @Override
+    public synchronized void setStragglerMillis(int millis) {
+        stragglerMillis = millis(millis);
+    }
+
+    @Override
+    public double getDropProbability() {
+        return dropProbability;
+    }
+
+    @Override
+    public synchronized void setDropProbability(double probability) {
+        dropProbability = probability(probability);
+    }
+
+    @Override
+    public double getStallProbability() {
+        return stallProbability;
+    }
+
+    @Override
+    public synchronized void setStallProbability(double probability) {
+        stallProbability = probability(probability);
+    }
+
+    @Override
+    public int getStallMillis() {
+        return stallMillis;
+    }
+
+    @Override
+    public synchronized void setStallMillis(int millis) {
+        stallMillis = millis(millis);
+    }
+
+    @Override
+    public int getSlowMillis() {
+        return slowMillis;
+    }
+
+    @Override
+    public synchronized void setSlowMillis(int millis) {
+        slowMillis = millis(millis);
+    }
+
+    @Override
+    public long getStragglers() {
+        return stragglers.sum();
+    }
+
+    @Override
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    @Override
+    public long getSlowed() {
+        return slowed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "faults instance=" + instanceName + " spec=" + getSpec() + " stragglers=" + stragglers.sum() + " drops="
+                + drops.sum() + " stalls=" + stalls.sum() + " slowed=" + slowed.sum();
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
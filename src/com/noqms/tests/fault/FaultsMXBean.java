@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.fault;
+
+// What JMX clients such as jconsole see, and can change while a test runs, for each service instance with faults,
+// as com.noqms.tests:type=Faults,name=<instance>. setSpec takes the same text as Faults.setSpec.
+
+public interface FaultsMXBean {
+    String getInstanceName();
+
+    String getSpec();
+
+    void setSpec(String spec);
+
+    double getStragglerProbability();
+
+    void setStragglerProbability(double probability);
+
+    int getStragglerMillis();
+
+    void setStragglerMillis(int millis);
+
+    double getDropProbability();
+
+    void setDropProbability(double probability);
+
+    double getStallProbability();
+
+    void setStallProbability(double probability);
+
+    int getStallMillis();
+
+    void setStallMillis(int millis);
+
+    int getSlowMillis();
+
+    void setSlowMillis(int millis);
+
+    long getStragglers();
+
+    long getDrops();
+
+    long getStalls();
+
+    long getSlowed();
+}
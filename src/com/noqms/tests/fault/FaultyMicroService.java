@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.fault;
+
+import com.noqms.MicroService;
+
+// Base class that lets any test service misbehave on demand. A service extends this instead of MicroService,
+// implements processFaultyRequest instead of processRequest and calls sendFaultyResponse instead of sendResponse.
+// Each instance has its own Faults, none until set; the test reaches them through the instance Starter.start returns.
+
+public abstract class FaultyMicroService extends MicroService {
+    private final Faults faults = new Faults();
+
+    public Faults getFaults() {
+        return faults;
+    }
+
+    @Override
+    public final void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+        faults.beforeProcess();
+        processFaultyRequest(requestId, serviceNameFrom, data, threadIndex);
+    }
+
+    protected abstract void processFaultyRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex);
+
+    protected void sendFaultyResponse(Long requestId, Integer code, String userMessage, String developerMessage,
+            byte[] data) {
+        faults.respond(() -> sendResponse(requestId, code, userMessage, developerMessage, data));
+    }
+}
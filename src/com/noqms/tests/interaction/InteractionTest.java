@@ -16,22 +16,26 @@
 
 package com.noqms.tests.interaction;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
-import com.google.gson.Gson;
 import com.noqms.LogListener;
 import com.noqms.MicroService;
 import com.noqms.Starter;
+import com.noqms.tests.codec.BinaryCodec;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.codec.CodecBenchmark;
+import com.noqms.tests.codec.CodecType;
+import com.noqms.tests.codec.Codecs;
+import com.noqms.tests.util.CountingLogListener;
 
 // This is a self-contained test and may run many microservices in the same process. 
 // Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
 // Starting multiple microservices linearly typically takes seconds each.
 
 public class InteractionTest {
-    private static final Gson gson = new Gson();
+    private static final Codec<Model> codec = createCodec(CodecType.fromSystemProperty());
     private static final Random random = new Random();
 
     private final int microServices;
@@ -45,7 +49,8 @@ public class InteractionTest {
     }
 
     public void run() throws Exception {
-        MyLogListener logListener = new MyLogListener();
+        System.out.println("codec=" + CodecType.fromSystemProperty().getName());
+        CountingLogListener logListener = new CountingLogListener();
         MicroService incoming = startIncoming(logListener);
 
         MicroService[] micros = new MicroService[microServices];
@@ -59,7 +64,7 @@ public class InteractionTest {
 
         Model model = new Model();
         model.microServices = microServices;
-        byte[] data = gson.toJson(model).getBytes(StandardCharsets.UTF_8);
+        byte[] data = codec.encode(model);
         for (int ix = 0; ix < messages; ix += 10) {
             String microServiceName = "MS#" + String.valueOf(1 + random.nextInt(microServices));
             incoming.sendRequestExpectResponse(microServiceName, data);
@@ -78,12 +83,44 @@ public class InteractionTest {
         }
 
         sleepMillis(TimeUnit.SECONDS.toMillis(30));
+
+        // the drained service is expected to show as not responsive, and nothing else is expected to be warned about
+        logListener.close();
+        System.out.println(logListener);
+        boolean failed = false;
+        if (logListener.getCount(CountingLogListener.Kind.UNRESPONSIVE) == 0) {
+            System.err.println("Expected MS#1 to be reported as not responsive after draining it");
+            failed = true;
+        }
+        for (CountingLogListener.Kind kind : CountingLogListener.Kind.values()) {
+            if (kind != CountingLogListener.Kind.UNRESPONSIVE && logListener.getCount(kind) > 0) {
+                System.err.println("Unexpected " + kind.getName() + " warnings: " + logListener.getCount(kind));
+                failed = true;
+            }
+        }
+        if (failed)
+            System.exit(1);
     }
 
     private static class Model {
         private int microServices;
     }
 
+    private static Codec<Model> createCodec(CodecType type) {
+        return Codecs.create(type, Model.class, () -> BinaryCodec.of(Integer.BYTES,
+                (model, buffer) -> buffer.putInt(model.microServices), buffer -> {
+                    Model model = new Model();
+                    model.microServices = buffer.getInt();
+                    return model;
+                }));
+    }
+
+    public static CodecBenchmark.Case<?> createCodecBenchmarkCase(CodecType type) {
+        Model model = new Model();
+        model.microServices = 10;
+        return new CodecBenchmark.Case<>("InteractionTest.Model", type, createCodec(type), model);
+    }
+
     private MicroService startMicroTest(String name, int threads, LogListener logListener) throws Exception {
         Properties props = new Properties();
         props.setProperty(Starter.PROP_GROUP_NAME, "InteractionTest");
@@ -115,43 +152,13 @@ public class InteractionTest {
         @Override
         public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
             sendResponse(requestId, null, null, null, null);
-            Model model = gson.fromJson(new String(data, StandardCharsets.UTF_8), Model.class);
-            data = gson.toJson(model).getBytes(StandardCharsets.UTF_8);
+            Model model = codec.decode(data);
+            data = codec.encode(model);
             String microServiceName = "MS#" + String.valueOf(1 + random.nextInt(model.microServices));
             sendRequestExpectResponse(microServiceName, data);
         }
     }
 
-    public static class MyLogListener implements LogListener {
-        @Override
-        public void debug(String text) {
-            System.out.println(text);
-        }
-
-        @Override
-        public void info(String text) {
-            System.out.println(text);
-        }
-
-        @Override
-        public void warn(String text) {
-            if (text.contains("is not responsive: MS#1"))
-                System.out.println("Expecting service is not responsive: " + text);
-            else {
-                System.err.println(text);
-                sleepMillis(100);
-                System.exit(-1); // end the test
-            }
-        }
-
-        @Override
-        public void error(String text, Throwable th) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
-        }
-    }
-
     private static void sleepMillis(long millis) {
         long sleptMillis = 0;
         while (sleptMillis < millis) {
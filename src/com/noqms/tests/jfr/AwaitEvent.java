@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Time a caller spends blocked in ResponseFuture.await.
+
+@Name("com.noqms.tests.Await")
+@Label("Await Response")
+@Category({"NoQMS Tests", "Messages"})
+@Description("A test thread waiting for a response")
+@StackTrace(false)
+public class AwaitEvent extends Event {
+    @Label("Target Service")
+    public String targetService;
+
+    @Label("Response Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Thread Index")
+    public int threadIndex;
+
+    @Label("Outcome")
+    public String outcome;
+
+    public static AwaitEvent start() {
+        AwaitEvent event = new AwaitEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String targetService, byte[] data, int threadIndex, boolean timedOut) {
+        end();
+        if (shouldCommit()) {
+            this.targetService = targetService;
+            this.payloadBytes = data == null ? 0 : data.length;
+            this.threadIndex = threadIndex;
+            this.outcome = timedOut ? "TimedOut" : "Ok";
+            commit();
+        }
+    }
+}
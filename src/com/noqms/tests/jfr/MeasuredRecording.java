@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.jfr;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+// Flight recording of just the measured window of a benchmark, so message events line up with GC, safepoints,
+// lock contention and socket I/O in one file without attaching anything from outside.
+// -Dnoqms.tests.jfr=<file.jfr> turns it on. -Dnoqms.tests.jfrSettings picks the JDK settings (default profile) and
+// -Dnoqms.tests.jfrThresholdMicros records only message events at least that long (default 0, all of them).
+// Tests that measure more than once (MixedWorkloadTest phases) overwrite the file unless it contains {name},
+// which is replaced by the measurement name.
+
+public class MeasuredRecording {
+    public static final String PROP_JFR = "noqms.tests.jfr";
+    public static final String PROP_JFR_SETTINGS = "noqms.tests.jfrSettings";
+    public static final String PROP_JFR_THRESHOLD_MICROS = "noqms.tests.jfrThresholdMicros";
+
+    private final Recording recording;
+    private final String file;
+
+    private MeasuredRecording(Recording recording, String file) {
+        this.recording = recording;
+        this.file = file;
+    }
+
+    // Returns null when no recording was asked for or it could not be started.
+    public static MeasuredRecording startIfRequested(String name) {
+        String file = System.getProperty(PROP_JFR);
+        if (file == null)
+            return null;
+        file = file.replace("{name}", name.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        try {
+            Configuration configuration = Configuration.getConfiguration(System.getProperty(PROP_JFR_SETTINGS,
+                    "profile"));
+            Recording recording = new Recording(configuration);
+            recording.setName(name);
+            Duration threshold = Duration.ofNanos(1000L * Integer.getInteger(PROP_JFR_THRESHOLD_MICROS, 0));
+            recording.enable(SendEvent.class).withThreshold(threshold);
+            recording.enable(AwaitEvent.class).withThreshold(threshold);
+            recording.enable(ProcessRequestEvent.class).withThreshold(threshold);
+            recording.setDestination(Paths.get(file));
+            recording.start();
+            return new MeasuredRecording(recording, file);
+        } catch (IOException | ParseException ex) {
+            System.err.println("Flight recording not started: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    public void stop() {
+        recording.stop(); // writes the destination file
+        recording.close();
+        System.out.println("Flight recording written to " + file);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Time spent in a test service's processRequest, including sending its response.
+
+@Name("com.noqms.tests.ProcessRequest")
+@Label("Process Request")
+@Category({"NoQMS Tests", "Messages"})
+@Description("A test service processing a request")
+@StackTrace(false)
+public class ProcessRequestEvent extends Event {
+    @Label("Service From")
+    public String serviceNameFrom;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Thread Index")
+    public int threadIndex;
+
+    @Label("Outcome")
+    public String outcome;
+
+    public static ProcessRequestEvent start() {
+        ProcessRequestEvent event = new ProcessRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String serviceNameFrom, byte[] data, int threadIndex, Object outcome) {
+        end();
+        if (shouldCommit()) {
+            this.serviceNameFrom = serviceNameFrom;
+            this.payloadBytes = data == null ? 0 : data.length;
+            this.threadIndex = threadIndex;
+            this.outcome = String.valueOf(outcome);
+            commit();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Duration of a send call, from handing the request to noqms until the call returns - not the round trip.
+// The fields are only filled in when the event will actually be recorded, so an unrecorded event costs next to
+// nothing on the hot path.
+
+@Name("com.noqms.tests.Send")
+@Label("Send")
+@Category({"NoQMS Tests", "Messages"})
+@Description("A send call made by a test")
+@StackTrace(false)
+public class SendEvent extends Event {
+    @Label("Target Service")
+    public String targetService;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Thread Index")
+    public int threadIndex;
+
+    @Label("Expects Response")
+    public boolean expectsResponse;
+
+    @Label("Outcome")
+    public String outcome;
+
+    public static SendEvent start() {
+        SendEvent event = new SendEvent();
+        event.begin();
+        return event;
+    }
+
+    public void finish(String targetService, byte[] data, int threadIndex, boolean expectsResponse, Object outcome) {
+        end();
+        if (shouldCommit()) {
+            this.targetService = targetService;
+            this.payloadBytes = data == null ? 0 : data.length;
+            this.threadIndex = threadIndex;
+            this.expectsResponse = expectsResponse;
+            this.outcome = String.valueOf(outcome);
+            commit();
+        }
+    }
+}
@@ -16,82 +16,271 @@
 
 package com.noqms.tests.load;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Properties;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.noqms.LogListener;
 import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
 import com.noqms.Starter;
+import com.noqms.tests.compression.Compressor;
+import com.noqms.tests.compression.NoCompressor;
+import com.noqms.tests.jfr.ProcessRequestEvent;
+import com.noqms.tests.jfr.SendEvent;
+import com.noqms.tests.metrics.LiveMetrics;
+import com.noqms.tests.metrics.ServiceMetrics;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.PayloadGenerator;
+import com.noqms.tests.util.PayloadVerifier;
+import com.noqms.tests.util.ResponseAwaiter;
+import com.noqms.tests.util.SteadyStateMeter;
 
 // This is a self-contained test and may run many microservices in the same process. 
 // Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
 // Starting multiple microservices linearly typically takes seconds each.
+// With -Dnoqms.tests.verify=true every payload is stamped and every echoed response awaited and checked
+// (see PayloadVerifier), and the cpu time of that is reported next to the throughput. The responses are then timed
+// when they arrive, by a ResponseAwaiter.
 
 public class LoadTest {
-    private static final AtomicInteger requestsAtom = new AtomicInteger();
+    private static final LongAdder requests = new LongAdder();
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final LongAdder payloadBytes = new LongAdder();
+    private static final LongAdder wireBytes = new LongAdder();
+    private static final LongAdder compressCpuNanos = new LongAdder();
+    private static final LongAdder decompressCpuNanos = new LongAdder();
+    private static final int PAYLOADS = 64;
+    private static volatile Compressor compressor;
+    private static volatile boolean timeCompression;
 
     private final int microServices;
     private final int threadsPerMicroService;
     private final int messagesPerMilliSecond;
     private final int dataLength;
+    private final PayloadGenerator payloadGenerator;
+    private final Compressor payloadCompressor;
+    private final PayloadVerifier verifier = PayloadVerifier.isRequested() ? new PayloadVerifier() : null;
+    private final ResponseAwaiter awaiter = new ResponseAwaiter("Verify");
+    private final LatencyHistogram latency = new LatencyHistogram();
 
     public LoadTest(int microServices, int threadsPerMicroService, int messagesPerMilliSecond, int dataLength) {
+        this(microServices, threadsPerMicroService, messagesPerMilliSecond, dataLength,
+                PayloadGenerator.fromName("zeros"), Compressor.fromName("none"));
+    }
+
+    public LoadTest(int microServices, int threadsPerMicroService, int messagesPerMilliSecond, int dataLength,
+            PayloadGenerator payloadGenerator, Compressor payloadCompressor) {
         this.microServices = microServices;
         this.threadsPerMicroService = threadsPerMicroService;
         this.messagesPerMilliSecond = messagesPerMilliSecond;
         this.dataLength = dataLength;
+        this.payloadGenerator = payloadGenerator;
+        this.payloadCompressor = payloadCompressor;
     }
 
     public void run() throws Exception {
-        MyLogListener logListener = new MyLogListener();
-        MicroService incoming = startMicroIncoming(dataLength, logListener);
+        compressor = payloadCompressor;
+        timeCompression = !(payloadCompressor instanceof NoCompressor);
+        int maxMessageBytes = payloadCompressor.maxCompressedLength(dataLength);
+        CountingLogListener logListener = new CountingLogListener();
+        MicroService incoming = startMicroIncoming(maxMessageBytes, logListener);
 
         for (int ix = 1; ix <= microServices; ix++) {
             String microServiceName = "MS#" + String.valueOf(ix);
-            startMicroTest(microServiceName, threadsPerMicroService, dataLength, logListener);
+            startMicroTest(microServiceName, threadsPerMicroService, maxMessageBytes, logListener);
+        }
+
+        byte[][] payloads = payloadGenerator.generate(PAYLOADS, dataLength, 0);
+        SendThread sendThread = new SendThread(incoming, payloads);
+        sendThread.start();
+
+        AtomicReference<Usage> measureStartUsage = new AtomicReference<>();
+        AtomicReference<Long> measureStartVerifyCpuNanos = new AtomicReference<>(0L);
+        SteadyStateMeter meter = new SteadyStateMeter("LoadTest", requests::sum);
+        meter.onMeasureStart(() -> {
+            measureStartUsage.set(new Usage());
+            if (verifier != null)
+                measureStartVerifyCpuNanos.set(verifier.getCpuNanos());
+            latency.reset();
+        });
+        meter.reportLogEvents(logListener);
+        SteadyStateMeter.Result result = meter.measure();
+        Usage usage = new Usage().minus(measureStartUsage.get());
+        sendThread.stop = true;
+        awaiter.stop();
+
+        double seconds = usage.nanos / (double)TimeUnit.SECONDS.toNanos(1);
+        long payloadBytesSaved = usage.payloadBytes - usage.wireBytes;
+        System.out.println("payload=" + payloadGenerator.getName() + " compression=" + payloadCompressor.getName()
+                + " requestsPerSecond=" + (long)result.ratePerSecond + " payloadMBPerSecond="
+                + (long)(usage.payloadBytes / seconds / 1000000) + " wireMBPerSecond="
+                + (long)(usage.wireBytes / seconds / 1000000) + " bytesSavedPercent="
+                + (usage.payloadBytes == 0 ? 0 : 100 * payloadBytesSaved / usage.payloadBytes)
+                + " compressCpuMillis=" + TimeUnit.NANOSECONDS.toMillis(usage.compressCpuNanos)
+                + " decompressCpuMillis=" + TimeUnit.NANOSECONDS.toMillis(usage.decompressCpuNanos)
+                + " processCpuMillis=" + TimeUnit.NANOSECONDS.toMillis(usage.processCpuNanos) + " warmupSeconds="
+                + result.warmupSeconds + " steady=" + result.steady);
+        System.out.println(logListener);
+        BenchmarkResult benchmarkResult = new BenchmarkResult().put("requestsPerSecond", (long)result.ratePerSecond)
+                .put("wireMBPerSecond", (long)(usage.wireBytes / seconds / 1000000))
+                .put("processCpuMillisPerSecond",
+                        (long)(TimeUnit.NANOSECONDS.toMillis(usage.processCpuNanos) / seconds))
+                .put("warnings", logListener.getWarnings());
+        if (verifier != null) {
+            long verifyCpuNanos = verifier.getCpuNanos() - measureStartVerifyCpuNanos.get();
+            double verifyCpuPercent = usage.processCpuNanos == 0 ? 0 : 100.0 * verifyCpuNanos / usage.processCpuNanos;
+            System.out.println(verifier + String.format(" measuredCpuPercent=%.2f", verifyCpuPercent));
+            System.out.println("latency " + latency.toMicrosString());
+            benchmarkResult.put("verifyFailures", verifier.getFailures()).put("verifyCpuPercent", verifyCpuPercent)
+                    .putLatency("latency", latency);
+        }
+        benchmarkResult.print();
+    }
+
+    // Sends at the configured rate until stopped, independent of how fast the services respond.
+    private class SendThread extends Thread {
+        private volatile boolean stop;
+        private final MicroService incoming;
+        private final byte[][] payloads;
+
+        public SendThread(MicroService incoming, byte[][] payloads) {
+            this.incoming = incoming;
+            this.payloads = payloads;
+            setDaemon(true);
         }
 
-        new Timer(true).schedule(new PrintProgressTask(requestsAtom), 1000, 1000);
-        byte[] data = new byte[dataLength];
-
-        // run for one minute
-        long startTimeMillis = System.currentTimeMillis();
-        int oneMinuteMillis = (int)TimeUnit.MINUTES.toMillis(1);
-        Random random = new Random();
-        while (System.currentTimeMillis() - startTimeMillis < oneMinuteMillis) {
-            for (int ix = 0; ix < messagesPerMilliSecond; ix++) {
-                String microServiceName = "MS#" + String.valueOf(1 + random.nextInt(microServices));
-                incoming.sendRequestExpectResponse(microServiceName, data);
+        public void run() {
+            String[] names = new String[microServices];
+            ServiceMetrics[] serviceMetrics = new ServiceMetrics[microServices];
+            for (int ix = 0; ix < microServices; ix++) {
+                names[ix] = "MS#" + String.valueOf(ix + 1);
+                serviceMetrics[ix] = LiveMetrics.get(names[ix]);
+            }
+            Random random = new Random();
+            int sends = 0;
+            while (!stop) {
+                for (int ix = 0; ix < messagesPerMilliSecond; ix++) {
+                    int service = random.nextInt(microServices);
+                    String microServiceName = names[service];
+                    byte[] payload = payloads[sends++ % PAYLOADS];
+                    long sequence = verifier == null ? 0 : verifier.nextSequence();
+                    byte[] data = compress(verifier == null ? payload : verifier.stamp(payload, sequence));
+                    long sentNanos = System.nanoTime();
+                    SendEvent sendEvent = SendEvent.start();
+                    ResponseFuture responseFuture = incoming.sendRequestExpectResponse(microServiceName, data);
+                    sendEvent.finish(microServiceName, data, 0, true, responseFuture.getRequestStatus());
+                    ServiceMetrics metrics = serviceMetrics[service];
+                    if (responseFuture.getRequestStatus() != RequestStatus.Ok)
+                        metrics.refused();
+                    else if (verifier == null)
+                        metrics.sent(false); // the response is never awaited
+                    else {
+                        metrics.sent(true);
+                        awaiter.add(responseFuture, sentNanos,
+                                (response, latencyNanos) -> verify(response, latencyNanos, sequence, metrics));
+                    }
+                }
+                sleepMillis(1);
             }
-            sleepMillis(1);
         }
     }
 
-    private void startMicroTest(String name, int threads, int dataLength, LogListener logListener) throws Exception {
+    // Called on an awaiting thread as each echoed response arrives.
+    private void verify(ResponseFuture.Response response, long latencyNanos, long sequence, ServiceMetrics metrics) {
+        if (response.timedOut) {
+            metrics.timedOut();
+            return;
+        }
+        byte[] data = response.data == null ? null : decompress(response.data);
+        if (data == null) {
+            verifier.verify(null, sequence);
+            return;
+        }
+        latency.record(latencyNanos);
+        metrics.responded(latencyNanos);
+        verifier.verify(data, sequence);
+    }
+
+    private static class Usage {
+        private long nanos = System.nanoTime();
+        private long payloadBytes = LoadTest.payloadBytes.sum();
+        private long wireBytes = LoadTest.wireBytes.sum();
+        private long compressCpuNanos = LoadTest.compressCpuNanos.sum();
+        private long decompressCpuNanos = LoadTest.decompressCpuNanos.sum();
+        private long processCpuNanos = getProcessCpuNanos();
+
+        private Usage minus(Usage start) {
+            nanos -= start.nanos;
+            payloadBytes -= start.payloadBytes;
+            wireBytes -= start.wireBytes;
+            compressCpuNanos -= start.compressCpuNanos;
+            decompressCpuNanos -= start.decompressCpuNanos;
+            processCpuNanos -= start.processCpuNanos;
+            return this;
+        }
+    }
+
+    // Compression runs on the sending thread and is charged with that thread's cpu time, not wall time. Without
+    // compression there is nothing to time, and the two cpu time reads per message are left out so the default runs
+    // cost what they did before compression was added.
+    private static byte[] compress(byte[] data) {
+        byte[] compressed;
+        if (timeCompression) {
+            long startCpuNanos = threadBean.getCurrentThreadCpuTime();
+            compressed = compressor.compress(data);
+            compressCpuNanos.add(threadBean.getCurrentThreadCpuTime() - startCpuNanos);
+        } else
+            compressed = compressor.compress(data);
+        payloadBytes.add(data.length);
+        wireBytes.add(compressed.length);
+        return compressed;
+    }
+
+    private static byte[] decompress(byte[] data) {
+        if (!timeCompression)
+            return compressor.decompress(data);
+        long startCpuNanos = threadBean.getCurrentThreadCpuTime();
+        byte[] decompressed = compressor.decompress(data);
+        decompressCpuNanos.add(threadBean.getCurrentThreadCpuTime() - startCpuNanos);
+        return decompressed;
+    }
+
+    private static long getProcessCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private void startMicroTest(String name, int threads, int maxMessageBytes, LogListener logListener) throws Exception {
         Properties props = new Properties();
         props.setProperty(Starter.PROP_GROUP_NAME, "LoadTest");
         props.setProperty(Starter.PROP_SERVICE_NAME, name);
         props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.load.LoadTest$MicroTest");
         props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
         props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
-        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(dataLength));
-        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(dataLength));
-        Starter.start(props, logListener);
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxMessageBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxMessageBytes));
+        MicroService service = Starter.start(props, logListener);
+        if (service instanceof MicroTest)
+            ((MicroTest)service).metrics = LiveMetrics.get(name);
     }
 
-    private MicroService startMicroIncoming(int dataLength, LogListener logListener) throws Exception {
+    private MicroService startMicroIncoming(int maxMessageBytes, LogListener logListener) throws Exception {
         Properties props = new Properties();
         props.setProperty(Starter.PROP_GROUP_NAME, "LoadTest");
         props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
         props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.load.LoadTest$MicroIncoming");
         props.setProperty(Starter.PROP_THREADS, "1");
         props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
-        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(dataLength));
-        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(dataLength));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxMessageBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxMessageBytes));
         return Starter.start(props, logListener);
     }
 
@@ -99,37 +288,20 @@ public class LoadTest {
     }
 
     public static class MicroTest extends MicroService {
+        private volatile ServiceMetrics metrics; // set once started, when the name is known
+
         @Override
         public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            ServiceMetrics metrics = this.metrics;
+            if (metrics != null)
+                metrics.received();
+            ProcessRequestEvent event = ProcessRequestEvent.start();
             sleepMillis(new Random().nextInt(10));
+            data = decompress(data);
+            data = compress(data); // the echoed response is recompressed like a real reply
             sendResponse(requestId, null, null, null, data);
-            requestsAtom.incrementAndGet();
-        }
-    }
-
-    public static class MyLogListener implements LogListener {
-        @Override
-        public void debug(String text) {
-            System.out.println(text);
-        }
-        
-        @Override
-        public void info(String text) {
-            System.out.println(text);
-        }
-
-        @Override
-        public void warn(String text) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
-        }
-
-        @Override
-        public void error(String text, Throwable th) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
+            requests.increment();
+            event.finish(serviceNameFrom, data, threadIndex, "Responded");
         }
     }
 
@@ -144,17 +316,4 @@ public class LoadTest {
             sleptMillis += System.currentTimeMillis() - millisStart;
         }
     }
-
-    private class PrintProgressTask extends TimerTask {
-        private final AtomicInteger requestsAtom;
-
-        private PrintProgressTask(AtomicInteger requestsAtom) {
-            this.requestsAtom = requestsAtom;
-        }
-
-        @Override
-        public void run() {
-            System.out.println("Messages: " + 2 * requestsAtom.get()); // request + response
-        }
-    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.load;
+
+import com.noqms.tests.util.ForkRunner;
+
+import com.noqms.tests.compression.Compressor;
+import com.noqms.tests.util.PayloadGenerator;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command, once per payload and compression to compare:
+// java -server -cp * com.noqms.tests.load.Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_Compression <payload> <compression>
+// payload: zeros, random, text, json, compressible:<ratio> (default text)
+// compression: none, lz, deflate1 .. deflate9 (default none)
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.baseline=baseline.properties to record the results or gate them against a recorded baseline.
+
+// This test can also be directly run from an IDE.
+
+public class Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_Compression {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_Compression.class, args))
+            return;
+
+        int microServices = 10;
+        int threadsPerMicroService = 10;
+        int messagesPerMilliSecond = 10;
+        int dataLength = 50000;
+        String payload = args.length > 0 ? args[0] : "text";
+        String compression = args.length > 1 ? args[1] : "none";
+
+        try {
+            LoadTest test = new LoadTest(microServices, threadsPerMicroService, messagesPerMilliSecond, dataLength,
+                    PayloadGenerator.fromName(payload), Compressor.fromName(compression));
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -16,14 +16,22 @@
 
 package com.noqms.tests.load;
 
+import com.noqms.tests.util.ForkRunner;
+
 // Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
 // cd to that directory and execute the following command:
 // java -server -cp * com.noqms.tests.load.Run_LoadTest_1MicroService_100Threads_50KPerMsg_10MsgsPerMillisecond
 
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.baseline=baseline.properties to record the results or gate them against a recorded baseline.
+
 // This test can also be directly run from an IDE.
 
 public class Run_LoadTest_1MicroService_100Threads_50KPerMsg_10MsgsPerMillisecond {
     public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_LoadTest_1MicroService_100Threads_50KPerMsg_10MsgsPerMillisecond.class, args))
+            return;
+
         int microServices = 1;
         int threadsPerMicroService = 100;
         int messagesPerMilliSecond = 10;
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Live per service metrics for watching a long run and stopping it early when it goes bad. Every service is
+// registered as an MXBean (see ServiceMetricsMXBean) for jconsole or any other JMX client, and with
+// -Dnoqms.tests.metricsPort=<port> the same numbers are served as plain text, one line per service, from
+// http://localhost:<port>/ - bound to the loopback address only.
+// A ticker thread turns the counters into per second rates and keeps WINDOW_SECONDS of latency for the percentiles.
+// Recording shares counters between all the threads that talk to a service, which is contention a throughput run
+// doesn't want, so it is off unless -Dnoqms.tests.liveMetrics=true or a metrics port is given. When off, get returns
+// metrics that record nothing.
+
+public class LiveMetrics {
+    public static final String PROP_LIVE_METRICS = "noqms.tests.liveMetrics";
+    public static final String PROP_METRICS_PORT = "noqms.tests.metricsPort";
+    public static final int WINDOW_SECONDS = 10;
+
+    private static final Map<String, ServiceMetrics> services = new ConcurrentSkipListMap<>();
+    private static final Map<String, ServiceMetrics> cache = new ConcurrentHashMap<>();
+    private static final boolean enabled = Boolean.getBoolean(PROP_LIVE_METRICS)
+            || System.getProperty(PROP_METRICS_PORT) != null;
+    private static final ServiceMetrics disabled = new ServiceMetrics("disabled", false);
+
+    static {
+        if (enabled)
+            start();
+    }
+
+    private static void start() {
+        Thread ticker = new Thread(LiveMetrics::tick, "LiveMetrics");
+        ticker.setDaemon(true);
+        ticker.start();
+        Integer port = Integer.getInteger(PROP_METRICS_PORT);
+        if (port != null)
+            startHttpServer(port);
+    }
+
+    // Callers on a hot path should keep the returned metrics rather than look them up per request.
+    public static ServiceMetrics get(String serviceName) {
+        if (!enabled)
+            return disabled;
+        return cache.computeIfAbsent(serviceName, LiveMetrics::register);
+    }
+
+    private static ServiceMetrics register(String serviceName) {
+        ServiceMetrics metrics = new ServiceMetrics(serviceName, true);
+        services.put(serviceName, metrics);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("com.noqms.tests:type=ServiceMetrics,name=" + ObjectName.quote(serviceName)));
+        } catch (Exception ex) {
+            System.err.println("Metrics for " + serviceName + " not registered with JMX: " + ex.getMessage());
+        }
+        return metrics;
+    }
+
+    public static String getText() {
+        StringBuilder builder = new StringBuilder();
+        for (ServiceMetrics metrics : services.values())
+            builder.append(metrics).append('\n');
+        return builder.toString();
+    }
+
+    private static void tick() {
+        long nextNanos = System.nanoTime();
+        while (true) {
+            nextNanos += TimeUnit.SECONDS.toNanos(1);
+            long sleepNanos;
+            while ((sleepNanos = nextNanos - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            for (ServiceMetrics metrics : services.values())
+                metrics.tick();
+        }
+    }
+
+    private static void startHttpServer(int port) {
+        try {
+            HttpServer server = HttpServer
+                    .create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/", LiveMetrics::handle);
+            server.start();
+            System.out.println("Live metrics on http://localhost:" + port + "/");
+        } catch (IOException ex) {
+            System.err.println("Live metrics not served on port " + port + ": " + ex.getMessage());
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        byte[] body = getText().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.noqms.tests.util.LatencyHistogram;
+
+// Live counters for one service. The test threads only touch LongAdders and an interval histogram, so recording
+// costs them no lock; LiveMetrics turns these into per second rates and a rolling latency window once a second.
+// Sends are counted by the sender per target service, receives by the service itself.
+
+public class ServiceMetrics implements ServiceMetricsMXBean {
+    private final String serviceName;
+    private final boolean enabled;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram interval = new LatencyHistogram();
+
+    // written by the LiveMetrics ticker only
+    private final LatencyHistogram[] window = new LatencyHistogram[LiveMetrics.WINDOW_SECONDS];
+    private int windowIndex;
+    private final long[] lastTotals = new long[4];
+    private volatile long[] lastSecond = new long[4];
+
+    ServiceMetrics(String serviceName, boolean enabled) {
+        this.serviceName = serviceName;
+        this.enabled = enabled;
+        for (int ix = 0; ix < window.length; ix++)
+            window[ix] = new LatencyHistogram();
+    }
+
+    // A request was accepted for sending. When its response will be awaited it counts as in flight until then.
+    public void sent(boolean awaited) {
+        if (!enabled)
+            return;
+        sent.increment();
+        if (awaited)
+            inFlight.increment();
+    }
+
+    public void refused() {
+        if (!enabled)
+            return;
+        refused.increment();
+    }
+
+    public void responded(long latencyNanos) {
+        if (!enabled)
+            return;
+        inFlight.decrement();
+        interval.record(latencyNanos);
+    }
+
+    public void timedOut() {
+        if (!enabled)
+            return;
+        inFlight.decrement();
+        timedOut.increment();
+    }
+
+    public void received() {
+        if (!enabled)
+            return;
+        received.increment();
+    }
+
+    void tick() {
+        long[] totals = {sent.sum(), received.sum(), timedOut.sum(), refused.sum()};
+        long[] second = new long[totals.length];
+        for (int ix = 0; ix < totals.length; ix++) {
+            second[ix] = totals[ix] - lastTotals[ix];
+            lastTotals[ix] = totals[ix];
+        }
+        lastSecond = second;
+        LatencyHistogram latest = interval.snapshotAndReset();
+        synchronized (window) {
+            windowIndex = (windowIndex + 1) % window.length;
+            window[windowIndex] = latest;
+        }
+    }
+
+    private LatencyHistogram getWindowLatency() {
+        LatencyHistogram latency = new LatencyHistogram();
+        synchronized (window) {
+            for (LatencyHistogram second : window)
+                latency.add(second);
+        }
+        return latency;
+    }
+
+    @Override
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    @Override
+    public long getSentPerSecond() {
+        return lastSecond[0];
+    }
+
+    @Override
+    public long getReceivedPerSecond() {
+        return lastSecond[1];
+    }
+
+    @Override
+    public long getTimedOutPerSecond() {
+        return lastSecond[2];
+    }
+
+    @Override
+    public long getRefusedPerSecond() {
+        return lastSecond[3];
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    @Override
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(getWindowLatency().getPercentileNanos(50));
+    }
+
+    @Override
+    public long getP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(getWindowLatency().getPercentileNanos(99));
+    }
+
+    @Override
+    public long getP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(getWindowLatency().getPercentileNanos(99.9));
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(getWindowLatency().getMaxNanos());
+    }
+
+    @Override
+    public String toString() {
+        long[] second = lastSecond;
+        return "service=" + serviceName + " sentPerSecond=" + second[0] + " receivedPerSecond=" + second[1]
+                + " timedOutPerSecond=" + second[2] + " refusedPerSecond=" + second[3] + " inFlight=" + getInFlight()
+                + " sent=" + getSent() + " received=" + getReceived() + " timedOut=" + getTimedOut() + " refused="
+                + getRefused() + " latency " + getWindowLatency().toMicrosString();
+    }
+}
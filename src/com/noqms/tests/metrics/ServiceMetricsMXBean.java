@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.metrics;
+
+// What JMX clients such as jconsole see for each service, as com.noqms.tests:type=ServiceMetrics,name=<service>.
+// Rates are for the last whole second and percentiles for the last LiveMetrics.WINDOW_SECONDS.
+
+public interface ServiceMetricsMXBean {
+    String getServiceName();
+
+    long getSentPerSecond();
+
+    long getReceivedPerSecond();
+
+    long getTimedOutPerSecond();
+
+    long getRefusedPerSecond();
+
+    long getInFlight();
+
+    long getSent();
+
+    long getReceived();
+
+    long getTimedOut();
+
+    long getRefused();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+}
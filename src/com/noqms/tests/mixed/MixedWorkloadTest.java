@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.mixed;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.jfr.AwaitEvent;
+import com.noqms.tests.jfr.ProcessRequestEvent;
+import com.noqms.tests.jfr.SendEvent;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.SteadyStateMeter;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Runs three phases against the same service: one-way sends only, request/response only, then the configured mix.
+// Throughput is counted where the requests are processed, so one-way messages lost on the way don't count.
+// Response tracking cost is the difference in process cpu per request and in the cost of the send call itself
+// between the request/response and the one-way phases.
+
+public class MixedWorkloadTest {
+    private static final LongAdder oneWayProcessed = new LongAdder();
+    private static final LongAdder requestResponseProcessed = new LongAdder();
+
+    private final int threads;
+    private final int threadsPerMicroService;
+    private final double oneWayRatio;
+    private CountingLogListener logListener;
+
+    public MixedWorkloadTest(int threads, int threadsPerMicroService, double oneWayRatio) {
+        this.threads = threads;
+        this.threadsPerMicroService = threadsPerMicroService;
+        this.oneWayRatio = oneWayRatio;
+    }
+
+    public void run() throws Exception {
+        logListener = new CountingLogListener();
+        MicroService incoming = startMicroIncoming(logListener);
+        startMicroTest(threadsPerMicroService, logListener);
+
+        Phase oneWay = new Phase("oneWay", 1.0);
+        Phase requestResponse = new Phase("requestResponse", 0.0);
+        Phase mixed = new Phase("mixed" + Math.round(100 * oneWayRatio) + "PercentOneWay", oneWayRatio);
+        for (Phase phase : new Phase[] {oneWay, requestResponse, mixed}) {
+            phase.run(incoming);
+            System.out.println(phase);
+            sleepMillis(1000); // let the last phase drain
+        }
+
+        double trackingCpuMicros = requestResponse.cpuMicrosPerRequest - oneWay.cpuMicrosPerRequest;
+        double trackingSendCallMicros = (requestResponse.requestSendCall.getMeanNanos()
+                - oneWay.oneWaySendCall.getMeanNanos()) / 1000;
+        System.out.println("oneWayRequestsPerSecond=" + (long)oneWay.requestsPerSecond
+                + " requestResponseRequestsPerSecond=" + (long)requestResponse.requestsPerSecond
+                + " mixedRequestsPerSecond=" + (long)mixed.requestsPerSecond + " responseTrackingCpuMicrosPerRequest="
+                + String.format("%.2f", trackingCpuMicros) + " responseTrackingSendCallMicros="
+                + String.format("%.2f", trackingSendCallMicros));
+        System.out.println(logListener);
+        new BenchmarkResult().put("oneWayRequestsPerSecond", (long)oneWay.requestsPerSecond)
+                .put("requestResponseRequestsPerSecond", (long)requestResponse.requestsPerSecond)
+                .put("mixedRequestsPerSecond", (long)mixed.requestsPerSecond)
+                .put("responseTrackingCpuNanosPerRequest", (long)(1000 * trackingCpuMicros))
+                .putLatency("mixedRoundTrip", mixed.roundTrip).put("warnings", logListener.getWarnings()).print();
+    }
+
+    private class Phase {
+        private final String name;
+        private final double oneWayRatio;
+        private final LatencyHistogram roundTrip = new LatencyHistogram();
+        private final LatencyHistogram oneWaySendCall = new LatencyHistogram();
+        private final LatencyHistogram requestSendCall = new LatencyHistogram();
+        private final LongAdder refused = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private double requestsPerSecond;
+        private double cpuMicrosPerRequest;
+        private long oneWayCount;
+        private long requestResponseCount;
+
+        private Phase(String name, double oneWayRatio) {
+            this.name = name;
+            this.oneWayRatio = oneWayRatio;
+        }
+
+        private void run(MicroService incoming) throws InterruptedException {
+            SendThread[] sendThreads = new SendThread[threads];
+            for (int ix = 0; ix < threads; ix++)
+                sendThreads[ix] = new SendThread(ix, incoming, this);
+            for (int ix = 0; ix < threads; ix++)
+                sendThreads[ix].start();
+
+            long[] start = new long[3];
+            // one-way sends alone record no round trips, so that phase settles on its rate only
+            LongSupplier processed = () -> oneWayProcessed.sum() + requestResponseProcessed.sum();
+            SteadyStateMeter meter = oneWayRatio == 1 ? new SteadyStateMeter("MixedWorkloadTest " + name, processed)
+                    : new SteadyStateMeter("MixedWorkloadTest " + name, processed, roundTrip);
+            meter.reportLogEvents(logListener);
+            meter.onMeasureStart(() -> {
+                start[0] = getProcessCpuNanos();
+                start[1] = oneWayProcessed.sum();
+                start[2] = requestResponseProcessed.sum();
+                oneWaySendCall.reset();
+                requestSendCall.reset();
+                refused.reset();
+                timedOut.reset();
+            });
+            SteadyStateMeter.Result result = meter.measure();
+            long cpuNanos = getProcessCpuNanos() - start[0];
+            oneWayCount = oneWayProcessed.sum() - start[1];
+            requestResponseCount = requestResponseProcessed.sum() - start[2];
+            for (int ix = 0; ix < threads; ix++)
+                sendThreads[ix].stop = true;
+            for (int ix = 0; ix < threads; ix++)
+                sendThreads[ix].join();
+
+            requestsPerSecond = result.ratePerSecond;
+            long requests = oneWayCount + requestResponseCount;
+            cpuMicrosPerRequest = requests == 0 ? 0 : cpuNanos / 1000.0 / requests;
+            roundTrip.reset();
+            roundTrip.add(result.latency);
+        }
+
+        @Override
+        public String toString() {
+            return "phase=" + name + " requestsPerSecond=" + (long)requestsPerSecond + " oneWay=" + oneWayCount
+                    + " requestResponse=" + requestResponseCount + " refused=" + refused.sum() + " timedOut="
+                    + timedOut.sum() + " cpuMicrosPerRequest=" + String.format("%.2f", cpuMicrosPerRequest)
+                    + "\n  oneWaySendCall " + oneWaySendCall.toMicrosString() + "\n  requestSendCall "
+                    + requestSendCall.toMicrosString() + "\n  roundTrip " + roundTrip.toMicrosString();
+        }
+    }
+
+    private static class SendThread extends Thread {
+        private volatile boolean stop;
+        private final int threadIndex;
+        private final MicroService incoming;
+        private final Phase phase;
+
+        public SendThread(int threadIndex, MicroService incoming, Phase phase) {
+            this.threadIndex = threadIndex;
+            this.incoming = incoming;
+            this.phase = phase;
+            setDaemon(true);
+        }
+
+        public void run() {
+            Random random = new Random();
+            while (!stop) {
+                long startNanos = System.nanoTime();
+                if (random.nextDouble() < phase.oneWayRatio) {
+                    SendEvent sendEvent = SendEvent.start();
+                    RequestStatus requestStatus = incoming.sendRequest("Test", null);
+                    sendEvent.finish("Test", null, threadIndex, false, requestStatus);
+                    phase.oneWaySendCall.record(System.nanoTime() - startNanos);
+                    if (requestStatus != RequestStatus.Ok)
+                        backOff();
+                } else {
+                    SendEvent sendEvent = SendEvent.start();
+                    ResponseFuture responseFuture = incoming.sendRequestExpectResponse("Test", null);
+                    sendEvent.finish("Test", null, threadIndex, true, responseFuture.getRequestStatus());
+                    phase.requestSendCall.record(System.nanoTime() - startNanos);
+                    if (responseFuture.getRequestStatus() != RequestStatus.Ok) {
+                        backOff();
+                        continue;
+                    }
+                    AwaitEvent awaitEvent = AwaitEvent.start();
+                    ResponseFuture.Response response = responseFuture.await();
+                    awaitEvent.finish("Test", response.data, threadIndex, response.timedOut);
+                    if (response.timedOut)
+                        phase.timedOut.increment();
+                    else
+                        phase.roundTrip.record(System.nanoTime() - startNanos);
+                }
+            }
+        }
+
+        // One-way senders are not paced by responses, so a full queue is the only brake.
+        private void backOff() {
+            phase.refused.increment();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static long getProcessCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private void startMicroTest(int threads, LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "MixedWorkloadTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Test");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.mixed.MixedWorkloadTest$MicroTest");
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "0");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "0");
+        Starter.start(props, logListener);
+    }
+
+    private MicroService startMicroIncoming(LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "MixedWorkloadTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.mixed.MixedWorkloadTest$MicroIncoming");
+        props.setProperty(Starter.PROP_THREADS, "1");
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "100");
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroTest extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            ProcessRequestEvent event = ProcessRequestEvent.start();
+            if (requestId == null) {
+                oneWayProcessed.increment();
+                event.finish(serviceNameFrom, data, threadIndex, "OneWay");
+            } else {
+                sendResponse(requestId, null, null, null, null);
+                requestResponseProcessed.increment();
+                event.finish(serviceNameFrom, data, threadIndex, "Responded");
+            }
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.mixed;
+
+import com.noqms.tests.util.ForkRunner;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.mixed.Run_MixedWorkloadTest_10Threads_80PercentOneWay
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.baseline=baseline.properties to record the results or gate them against a recorded baseline.
+
+// This test can also be directly run from an IDE.
+
+public class Run_MixedWorkloadTest_10Threads_80PercentOneWay {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_MixedWorkloadTest_10Threads_80PercentOneWay.class, args))
+            return;
+
+        int threads = 10;
+        int threadsPerMicroService = 10;
+        double oneWayRatio = 0.8;
+
+        MixedWorkloadTest test = new MixedWorkloadTest(threads, threadsPerMicroService, oneWayRatio);
+        try {
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -16,75 +16,238 @@
 
 package com.noqms.tests.roundtrip;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 import com.noqms.LogListener;
 import com.noqms.MicroService;
 import com.noqms.RequestStatus;
 import com.noqms.ResponseFuture;
 import com.noqms.Starter;
+import com.noqms.tests.jfr.AwaitEvent;
+import com.noqms.tests.jfr.ProcessRequestEvent;
+import com.noqms.tests.jfr.SendEvent;
+import com.noqms.tests.metrics.LiveMetrics;
+import com.noqms.tests.metrics.ServiceMetrics;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.Statistics;
+import com.noqms.tests.util.SteadyStateMeter;
 
 // This is a self-contained test and may run many microservices in the same process. 
 // Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
 // Starting multiple microservices linearly typically takes seconds each.
 
+// Every caller (TestThread) counts its own completions and records its own latency, so callers share nothing on the
+// hot path unless live metrics are turned on (see LiveMetrics), and the spread between them shows whether noqms
+// serves its callers fairly. A caller is starved when it goes longer than -Dnoqms.tests.starvationMillis (default
+// 1000) without a completion during the measured window.
+// -Dnoqms.tests.sharedCounter=atomic or adder also counts every answered request in one counter shared by all
+// callers, as this test used to, to show what that costs at high thread counts (default none).
+
 public class RoundTripTest {
+    public static final String PROP_STARVATION_MILLIS = "noqms.tests.starvationMillis";
+    public static final String PROP_SHARED_COUNTER = "noqms.tests.sharedCounter";
+
     private final int threads;
+    private final long starvationNanos = TimeUnit.MILLISECONDS
+            .toNanos(Integer.getInteger(PROP_STARVATION_MILLIS, 1000));
+    private final String sharedCounter = System.getProperty(PROP_SHARED_COUNTER, "none");
+    private final AtomicLong sharedAtomic = new AtomicLong();
+    private final LongAdder sharedAdder = new LongAdder();
+    private final ServiceMetrics metrics = LiveMetrics.get("Test");
+    private volatile long windowStartNanos;
 
     public RoundTripTest(int threads) {
         this.threads = threads;
     }
 
     public void run() throws Exception {
-        AtomicInteger requestsAtom = new AtomicInteger();
-        MyLogListener logListener = new MyLogListener();
-        long oneMinuteMillis = TimeUnit.MINUTES.toMillis(1);
-        long oneMinuteSeconds = TimeUnit.MINUTES.toSeconds(1);
+        LongSupplier completions;
+        TestThread[] testThreads = new TestThread[threads];
+        if (sharedCounter.equals("atomic"))
+            completions = sharedAtomic::get;
+        else if (sharedCounter.equals("adder"))
+            completions = sharedAdder::sum;
+        else if (sharedCounter.equals("none"))
+            completions = () -> Arrays.stream(testThreads).mapToLong(testThread -> testThread.counters.completions)
+                    .sum();
+        else
+            throw new IllegalArgumentException("Unknown " + PROP_SHARED_COUNTER + ": " + sharedCounter);
+        CountingLogListener logListener = new CountingLogListener();
 
         MicroService incoming = startMicroIncoming(logListener);
         startMicroTest(threads, logListener);
 
-        TestThread[] testThreads = new TestThread[threads];
         for (int ix = 0; ix < threads; ix++)
-            testThreads[ix] = new TestThread(incoming, requestsAtom);
+            testThreads[ix] = new TestThread(ix, incoming);
         for (int ix = 0; ix < threads; ix++)
             testThreads[ix].start();
 
-        new Timer(true).schedule(new PrintProgressTask(requestsAtom), 1000, 1000);
-
-        sleepMillis(oneMinuteMillis);
+        long[] startCompletions = new long[threads];
+        SteadyStateMeter meter = new SteadyStateMeter("RoundTripTest", completions, () -> drainLatency(testThreads));
+        meter.reportLogEvents(logListener);
+        meter.onMeasureStart(() -> {
+            for (int ix = 0; ix < threads; ix++) {
+                testThreads[ix].interval.snapshotAndReset();
+                testThreads[ix].window.reset();
+                startCompletions[ix] = testThreads[ix].counters.completions;
+            }
+            windowStartNanos = System.nanoTime();
+        });
+        SteadyStateMeter.Result result = meter.measure();
+        Fairness fairness = new Fairness(testThreads, startCompletions, System.nanoTime());
         for (int ix = 0; ix < threads; ix++)
             testThreads[ix].stop = true;
         sleepMillis(100);
 
-        long messages = 2 * requestsAtom.get();
-        System.out.println("messagesPerSecond=" + (messages / oneMinuteSeconds) + " threads=" + threads
-                + " messagesPerSecondPerThread=" + (messages / oneMinuteSeconds / threads));
+        long messagesPerSecond = 2 * (long)result.ratePerSecond; // request + response
+        System.out.println("messagesPerSecond=" + messagesPerSecond + " threads=" + threads
+                + " messagesPerSecondPerThread=" + (messagesPerSecond / threads) + " sharedCounter=" + sharedCounter
+                + " warmupSeconds=" + result.warmupSeconds + " steady=" + result.steady + " latency "
+                + result.latency.toMicrosString());
+        System.out.println(fairness);
+        System.out.println(logListener);
+        new BenchmarkResult().put("messagesPerSecond", messagesPerSecond)
+                .put("messagesPerSecondPerThread", messagesPerSecond / threads).putLatency("latency", result.latency)
+                .put("jainFairness", fairness.jainIndex)
+                .put("slowestCallerP99Micros", TimeUnit.NANOSECONDS.toMicros(fairness.slowestP99Nanos))
+                .put("starvedCallers", fairness.starved.size()).put("warnings", logListener.getWarnings()).print();
+    }
+
+    // Runs on the meter thread once a second, so the callers' window histograms are only ever added to from here.
+    private LatencyHistogram drainLatency(TestThread[] testThreads) {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (TestThread testThread : testThreads) {
+            LatencyHistogram interval = testThread.interval.snapshotAndReset();
+            testThread.window.add(interval);
+            latency.add(interval);
+        }
+        return latency;
+    }
+
+    private class Fairness {
+        private final long minCompletions;
+        private final long maxCompletions;
+        private final double coefficientOfVariation;
+        private final double jainIndex;
+        private int slowestCaller;
+        private long slowestP99Nanos;
+        private long maxGapNanos;
+        private final List<Integer> starved = new ArrayList<>();
+
+        // Jain's index is 1 when every caller completed the same number of requests and 1/n when one caller got all.
+        private Fairness(TestThread[] testThreads, long[] startCompletions, long windowEndNanos) {
+            double[] completions = new double[threads];
+            double sum = 0;
+            double sumSquares = 0;
+            for (int ix = 0; ix < threads; ix++) {
+                CallerCounters counters = testThreads[ix].counters;
+                completions[ix] = counters.completions - startCompletions[ix];
+                sum += completions[ix];
+                sumSquares += completions[ix] * completions[ix];
+                long p99Nanos = testThreads[ix].window.getPercentileNanos(99);
+                if (p99Nanos > slowestP99Nanos) {
+                    slowestP99Nanos = p99Nanos;
+                    slowestCaller = ix;
+                }
+                long openGapNanos = windowEndNanos - Math.max(counters.lastCompletionNanos, windowStartNanos);
+                long gapNanos = Math.max(counters.maxGapNanos, openGapNanos);
+                maxGapNanos = Math.max(maxGapNanos, gapNanos);
+                if (gapNanos > starvationNanos)
+                    starved.add(ix);
+            }
+            double mean = Statistics.mean(completions);
+            minCompletions = (long)Statistics.min(completions);
+            maxCompletions = (long)Statistics.max(completions);
+            coefficientOfVariation = mean == 0 ? 0 : Statistics.standardDeviation(completions) / mean;
+            jainIndex = sumSquares == 0 ? 0 : sum * sum / (threads * sumSquares);
+        }
+
+        @Override
+        public String toString() {
+            return "callers=" + threads + " completionsMin=" + minCompletions + " completionsMax=" + maxCompletions
+                    + " completionsCv=" + String.format("%.3f", coefficientOfVariation) + " jainFairness="
+                    + String.format("%.4f", jainIndex) + " slowestCaller=" + slowestCaller
+                    + " slowestCallerP99Micros=" + TimeUnit.NANOSECONDS.toMicros(slowestP99Nanos) + " maxGapMillis="
+                    + TimeUnit.NANOSECONDS.toMillis(maxGapNanos) + " starvedCallers=" + starved;
+        }
+    }
+
+    // The padding on both sides keeps the counters of callers allocated next to each other off a shared cache line.
+    // Field order is only kept across a class hierarchy, hence the three classes.
+    private static class CallerCountersLeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class CallerCountersFields extends CallerCountersLeftPadding {
+        volatile long completions;
+        volatile long lastCompletionNanos;
+        volatile long maxGapNanos;
     }
 
-    private static class TestThread extends Thread {
+    // Written by its own caller only.
+    private static class CallerCounters extends CallerCountersFields {
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        private void complete(long nowNanos, long windowStartNanos) {
+            if (windowStartNanos != 0) {
+                long gapNanos = nowNanos - Math.max(lastCompletionNanos, windowStartNanos);
+                if (gapNanos > maxGapNanos)
+                    maxGapNanos = gapNanos;
+            }
+            lastCompletionNanos = nowNanos;
+            completions++;
+        }
+    }
+
+    private class TestThread extends Thread {
         private volatile boolean stop;
+        private final int threadIndex;
         private final MicroService incoming;
-        private final AtomicInteger requestsAtom;
+        private final CallerCounters counters = new CallerCounters();
+        private final LatencyHistogram interval = new LatencyHistogram();
+        private final LatencyHistogram window = new LatencyHistogram();
 
-        public TestThread(MicroService incoming, AtomicInteger requestsAtom) {
+        public TestThread(int threadIndex, MicroService incoming) {
+            this.threadIndex = threadIndex;
             this.incoming = incoming;
-            this.requestsAtom = requestsAtom;
             setDaemon(true);
         }
 
         public void run() {
             while (!stop) {
-                requestsAtom.incrementAndGet();
+                long startNanos = System.nanoTime();
+                SendEvent sendEvent = SendEvent.start();
                 ResponseFuture responseFuture = incoming.sendRequestExpectResponse("Test", null);
-                if (responseFuture.getRequestStatus() == RequestStatus.Ok)
-                    responseFuture.await();
-                else
+                sendEvent.finish("Test", null, threadIndex, true, responseFuture.getRequestStatus());
+                if (responseFuture.getRequestStatus() != RequestStatus.Ok) {
+                    metrics.refused();
                     break;
+                }
+                metrics.sent(true);
+                AwaitEvent awaitEvent = AwaitEvent.start();
+                ResponseFuture.Response response = responseFuture.await();
+                awaitEvent.finish("Test", response.data, threadIndex, response.timedOut);
+                long endNanos = System.nanoTime();
+                interval.record(endNanos - startNanos);
+                if (response.timedOut) {
+                    metrics.timedOut(); // not a completion, so the caller's gap keeps growing
+                } else {
+                    metrics.responded(endNanos - startNanos);
+                    counters.complete(endNanos, windowStartNanos);
+                    if (sharedCounter.equals("atomic"))
+                        sharedAtomic.incrementAndGet();
+                    else if (sharedCounter.equals("adder"))
+                        sharedAdder.increment();
+                }
             }
         }
     }
@@ -117,35 +280,14 @@ public class RoundTripTest {
     }
 
     public static class MicroTest extends MicroService {
+        private final ServiceMetrics metrics = LiveMetrics.get("Test");
+
         @Override
         public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            metrics.received();
+            ProcessRequestEvent event = ProcessRequestEvent.start();
             sendResponse(requestId, null, null, null, null);
-        }
-    }
-
-    public static class MyLogListener implements LogListener {
-        @Override
-        public void debug(String text) {
-            System.out.println(text);
-        }
-        
-        @Override
-        public void info(String text) {
-            System.out.println(text);
-        }
-
-        @Override
-        public void warn(String text) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
-        }
-
-        @Override
-        public void error(String text, Throwable th) {
-            System.err.println(text);
-            sleepMillis(100);
-            System.exit(-1); // end the test
+            event.finish(serviceNameFrom, data, threadIndex, "Responded");
         }
     }
 
@@ -160,17 +302,4 @@ public class RoundTripTest {
             sleptMillis += System.currentTimeMillis() - millisStart;
         }
     }
-
-    private class PrintProgressTask extends TimerTask {
-        private final AtomicInteger requestsAtom;
-
-        private PrintProgressTask(AtomicInteger requestsAtom) {
-            this.requestsAtom = requestsAtom;
-        }
-
-        @Override
-        public void run() {
-            System.out.println("Messages: " + 2 * requestsAtom.get()); // request + response
-        }
-    }
 }
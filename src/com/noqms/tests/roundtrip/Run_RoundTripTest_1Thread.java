@@ -16,14 +16,22 @@
 
 package com.noqms.tests.roundtrip;
 
+import com.noqms.tests.util.ForkRunner;
+
 // Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
 // cd to that directory and execute the following command:
 // java -server -cp * com.noqms.tests.roundtrip.Run_RoundTripTest_1Thread
 
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.baseline=baseline.properties to record the results or gate them against a recorded baseline.
+
 // This test can also be directly run from an IDE.
 
 public class Run_RoundTripTest_1Thread {
     public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_RoundTripTest_1Thread.class, args))
+            return;
+
         int threads = 1;
 
         RoundTripTest test = new RoundTripTest(threads);
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.scaling;
+
+import java.util.Arrays;
+
+import com.noqms.tests.load.Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_10MsgsPerMilliSecond;
+import com.noqms.tests.roundtrip.Run_RoundTripTest_100Threads;
+import com.noqms.tests.util.PayloadVerifier;
+import com.noqms.tests.util.ScalingRunner;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.scaling.Run_ScalingSweep [mainClass [args]]
+// Without arguments it sweeps Run_RoundTripTest_100Threads, whose throughput is limited by the machine, and then
+// Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_10MsgsPerMilliSecond, whose offered rate is fixed so its
+// processCpuMillisPerSecond shows what the same work costs with fewer cores. The LoadTest forks verify their
+// responses, which awaits them, so its latency is reported at each point too.
+// For another main, -Dnoqms.tests.scalingValue names the value to follow and -Dnoqms.tests.scalingFixedRate=true
+// marks a main that offers a fixed rate.
+
+// Add -Dnoqms.tests.cores=1,2,4,8 to pick the core counts and -Dnoqms.tests.forks=3 to run each point 3 times.
+
+// This test can also be directly run from an IDE.
+
+public class Run_ScalingSweep {
+    public static void main(String[] args) {
+        try {
+            if (args.length > 0) {
+                ScalingRunner.run(Class.forName(args[0]), Arrays.copyOfRange(args, 1, args.length));
+            } else {
+                ScalingRunner.run(Run_RoundTripTest_100Threads.class, new String[0]);
+                ScalingRunner.run(Run_LoadTest_10MicroServices_10ThreadsEach_50KPerMsg_10MsgsPerMilliSecond.class,
+                        new String[0], "processCpuMillisPerSecond", true,
+                        Arrays.asList("-D" + PayloadVerifier.PROP_VERIFY + "=true"));
+            }
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.soak;
+
+import java.util.concurrent.TimeUnit;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.soak.Run_SoakTest_8Hours
+
+// Add -Dnoqms.tests.soakSampleSeconds=10 to sample more often on shorter runs.
+// Add -Dnoqms.tests.metricsPort=9400 to watch live per service metrics on http://localhost:9400/ - they are
+// also registered with JMX for jconsole.
+
+// This test can also be directly run from an IDE.
+
+public class Run_SoakTest_8Hours {
+    public static void main(String[] args) {
+        int loadMicroServices = 10;
+        int bounceMicroServices = 10;
+        int threadsPerMicroService = 10;
+        int senderThreads = 10;
+        int messagesPerMilliSecond = 2;
+        int dataLength = 10000;
+        int bounceMessages = 100;
+        long durationMillis = TimeUnit.HOURS.toMillis(8);
+
+        SoakTest test = new SoakTest(loadMicroServices, bounceMicroServices, threadsPerMicroService, senderThreads,
+                messagesPerMilliSecond, dataLength, bounceMessages, durationMillis);
+        try {
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.soak;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.metrics.LiveMetrics;
+import com.noqms.tests.metrics.ServiceMetrics;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.PayloadGenerator;
+import com.noqms.tests.util.Trend;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Runs for hours with two workloads at once. The load workload is LoadTest shaped: a paced stream of requests whose
+// responses are never awaited, so their ResponseFutures are abandoned, plus paced sender threads that await their
+// responses and measure latency. The bounce workload is InteractionTest shaped: messages answered and forwarded
+// between services forever. Every sample interval (a minute by default) the heap after the last GC, live threads,
+// open file descriptors, throughput and latency are sampled, and at the end and every hour straight lines are fitted
+// to flag slow leaks and latency drift. Warnings are counted rather than ending the test - a soak has to survive
+// the odd timeout - and only a sustained storm of them (see CountingLogListener) ends it.
+
+public class SoakTest {
+    private static final LongAdder loadProcessed = new LongAdder();
+    private static final LongAdder bounceProcessed = new LongAdder();
+    private static final int SETTLE_SAMPLES = 5;
+    private static volatile int bounceMicroServices;
+    private static volatile String[] bounceNames;
+    private static volatile ServiceMetrics[] bounceMetrics;
+
+    private final int loadMicroServices;
+    private final int threadsPerMicroService;
+    private final int senderThreads;
+    private final int messagesPerMilliSecond;
+    private final int dataLength;
+    private final int bounceMessages;
+    private final long durationMillis;
+    private final long sampleMillis = TimeUnit.SECONDS
+            .toMillis(Integer.getInteger("noqms.tests.soakSampleSeconds", 60));
+
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LongAdder timedOut = new LongAdder();
+    private final CountingLogListener logListener = new CountingLogListener();
+    private final List<Sample> samples = new ArrayList<>();
+    private String[] loadNames;
+    private ServiceMetrics[] loadMetrics;
+    private volatile boolean stop;
+
+    public SoakTest(int loadMicroServices, int bounceMicroServices, int threadsPerMicroService, int senderThreads,
+            int messagesPerMilliSecond, int dataLength, int bounceMessages, long durationMillis) {
+        this.loadMicroServices = loadMicroServices;
+        SoakTest.bounceMicroServices = bounceMicroServices;
+        this.threadsPerMicroService = threadsPerMicroService;
+        this.senderThreads = senderThreads;
+        this.messagesPerMilliSecond = messagesPerMilliSecond;
+        this.dataLength = dataLength;
+        this.bounceMessages = bounceMessages;
+        this.durationMillis = durationMillis;
+    }
+
+    public void run() throws Exception {
+        // the send loops pick a service by index, so the names and metrics are looked up once here
+        loadNames = new String[loadMicroServices];
+        loadMetrics = new ServiceMetrics[loadMicroServices];
+        for (int ix = 0; ix < loadMicroServices; ix++) {
+            loadNames[ix] = "Load#" + (ix + 1);
+            loadMetrics[ix] = LiveMetrics.get(loadNames[ix]);
+        }
+        String[] names = new String[bounceMicroServices];
+        ServiceMetrics[] metrics = new ServiceMetrics[bounceMicroServices];
+        for (int ix = 0; ix < bounceMicroServices; ix++) {
+            names[ix] = "Bounce#" + (ix + 1);
+            metrics[ix] = LiveMetrics.get(names[ix]);
+        }
+        bounceNames = names;
+        bounceMetrics = metrics;
+
+        MicroService incoming = startMicroIncoming(logListener);
+        for (int ix = 1; ix <= loadMicroServices; ix++)
+            startMicroService("Load#" + ix, "com.noqms.tests.soak.SoakTest$MicroLoad", logListener);
+        for (int ix = 1; ix <= bounceMicroServices; ix++)
+            startMicroService("Bounce#" + ix, "com.noqms.tests.soak.SoakTest$MicroBounce", logListener);
+
+        byte[][] payloads = PayloadGenerator.fromName("random").generate(64, dataLength, 0);
+        new OpenLoopSendThread(incoming, payloads).start();
+        for (int ix = 0; ix < senderThreads; ix++)
+            new ClosedLoopSendThread(incoming, payloads).start();
+        for (int ix = 0; ix < bounceMessages; ix++)
+            incoming.sendRequestExpectResponse("Bounce#" + (1 + ix % bounceMicroServices), null);
+
+        long startMillis = System.currentTimeMillis();
+        long lastProcessed = loadProcessed.sum() + bounceProcessed.sum();
+        long samplesPerHour = Math.max(1, TimeUnit.HOURS.toMillis(1) / sampleMillis);
+        for (int sample = 1; sample * sampleMillis <= durationMillis; sample++) {
+            sleepMillis(startMillis + sample * sampleMillis - System.currentTimeMillis());
+            long processed = loadProcessed.sum() + bounceProcessed.sum();
+            Sample current = new Sample(sample * sampleMillis, (processed - lastProcessed) * 1000.0 / sampleMillis,
+                    intervalLatency.snapshotAndReset());
+            lastProcessed = processed;
+            samples.add(current);
+            System.out.println(current);
+            if (sample % samplesPerHour == 0)
+                printTrends();
+        }
+        stop = true;
+        printTrends();
+        System.out.println(logListener);
+    }
+
+    private class Sample {
+        private final double minutes;
+        private final double requestsPerSecond;
+        private final double heapAfterGcMB;
+        private final double threads;
+        private final double openFileDescriptors;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final long timedOut;
+        private final long warnings;
+
+        private Sample(long elapsedMillis, double requestsPerSecond, LatencyHistogram latency) {
+            this.minutes = elapsedMillis / 60000.0;
+            this.requestsPerSecond = requestsPerSecond;
+            this.heapAfterGcMB = getHeapAfterGcBytes() / 1000000.0;
+            this.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            this.openFileDescriptors = getOpenFileDescriptors();
+            this.p50Micros = TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(50));
+            this.p99Micros = TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99));
+            this.timedOut = SoakTest.this.timedOut.sum();
+            this.warnings = logListener.getWarnings();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("minutes=%.1f requestsPerSecond=%.0f heapAfterGcMB=%.1f threads=%.0f openFds=%.0f "
+                    + "p50Micros=%.0f p99Micros=%.0f timedOut=%d warnings=%d", minutes, requestsPerSecond,
+                    heapAfterGcMB, threads, openFileDescriptors, p50Micros, p99Micros, timedOut, warnings);
+        }
+    }
+
+    private void printTrends() {
+        int settled = samples.size() - SETTLE_SAMPLES;
+        if (settled < 3) {
+            System.out.println("Too few samples for trends");
+            return;
+        }
+        double[] hours = new double[settled];
+        double[][] series = new double[6][settled];
+        for (int ix = 0; ix < settled; ix++) {
+            Sample sample = samples.get(SETTLE_SAMPLES + ix);
+            hours[ix] = sample.minutes / 60;
+            series[0][ix] = sample.heapAfterGcMB;
+            series[1][ix] = sample.threads;
+            series[2][ix] = sample.openFileDescriptors;
+            series[3][ix] = sample.p50Micros;
+            series[4][ix] = sample.p99Micros;
+            series[5][ix] = sample.requestsPerSecond;
+        }
+        System.out.println("Trends over " + settled + " samples after the first " + SETTLE_SAMPLES + ":");
+        printTrend("heapAfterGcMB", Trend.fit(hours, series[0]), 0.01, true);
+        printTrend("threads", Trend.fit(hours, series[1]), 0, true);
+        printTrend("openFds", Trend.fit(hours, series[2]), 0, true);
+        printTrend("p50Micros", Trend.fit(hours, series[3]), 0.05, true);
+        printTrend("p99Micros", Trend.fit(hours, series[4]), 0.05, true);
+        printTrend("requestsPerSecond", Trend.fit(hours, series[5]), 0.05, false);
+    }
+
+    // Flags a slope that is confidently in the bad direction and larger than the given fraction of the mean per hour.
+    private static void printTrend(String name, Trend trend, double fractionPerHour, boolean risingIsBad) {
+        boolean confident = risingIsBad ? trend.isRising() : trend.isFalling();
+        boolean flagged = confident && Math.abs(trend.slope) > fractionPerHour * Math.abs(trend.mean);
+        System.out.println(String.format("  %s mean=%.1f slopePerHour=%.3f ci95=+-%.3f r2=%.2f%s", name, trend.mean,
+                trend.slope, trend.slopeConfidence95, trend.rSquared,
+                flagged ? (name.startsWith("p") ? " DRIFT" : " LEAK?") : ""));
+    }
+
+    // The heap the collector left behind at its last collection, summed over the heap pools, which is what a leak
+    // grows. Read from the pools rather than forcing a GC, which would land a full pause in the measured latency.
+    private static long getHeapAfterGcBytes() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null)
+                bytes += usage.getUsed();
+        }
+        return bytes;
+    }
+
+    private static double getOpenFileDescriptors() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.UnixOperatingSystemMXBean)
+            return ((com.sun.management.UnixOperatingSystemMXBean)bean).getOpenFileDescriptorCount();
+        return -1;
+    }
+
+    // LoadTest style: nobody awaits these responses.
+    private class OpenLoopSendThread extends Thread {
+        private final MicroService incoming;
+        private final byte[][] payloads;
+
+        public OpenLoopSendThread(MicroService incoming, byte[][] payloads) {
+            this.incoming = incoming;
+            this.payloads = payloads;
+            setDaemon(true);
+        }
+
+        public void run() {
+            Random random = new Random();
+            long sends = 0;
+            while (!stop) {
+                for (int ix = 0; ix < messagesPerMilliSecond; ix++) {
+                    int service = random.nextInt(loadMicroServices);
+                    ResponseFuture responseFuture = incoming.sendRequestExpectResponse(loadNames[service],
+                            payloads[(int)(sends++ % payloads.length)]);
+                    if (responseFuture.getRequestStatus() == RequestStatus.Ok)
+                        loadMetrics[service].sent(false);
+                    else
+                        loadMetrics[service].refused();
+                }
+                sleepMillis(1);
+            }
+        }
+    }
+
+    private class ClosedLoopSendThread extends Thread {
+        private final MicroService incoming;
+        private final byte[][] payloads;
+
+        public ClosedLoopSendThread(MicroService incoming, byte[][] payloads) {
+            this.incoming = incoming;
+            this.payloads = payloads;
+            setDaemon(true);
+        }
+
+        public void run() {
+            Random random = new Random();
+            while (!stop) {
+                int service = random.nextInt(loadMicroServices);
+                long startNanos = System.nanoTime();
+                ResponseFuture responseFuture = incoming.sendRequestExpectResponse(loadNames[service],
+                        payloads[random.nextInt(payloads.length)]);
+                ServiceMetrics metrics = loadMetrics[service];
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok) {
+                    metrics.sent(true);
+                    if (responseFuture.await().timedOut) {
+                        timedOut.increment();
+                        metrics.timedOut();
+                    } else {
+                        long nanos = System.nanoTime() - startNanos;
+                        intervalLatency.record(nanos);
+                        metrics.responded(nanos);
+                    }
+                } else {
+                    metrics.refused();
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+    }
+
+    private void startMicroService(String name, String path, LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "SoakTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
+        props.setProperty(Starter.PROP_SERVICE_PATH, path);
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threadsPerMicroService));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(dataLength));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(dataLength));
+        MicroService service = Starter.start(props, logListener);
+        if (service instanceof MicroLoad)
+            ((MicroLoad)service).metrics = LiveMetrics.get(name);
+        else if (service instanceof MicroBounce)
+            ((MicroBounce)service).metrics = LiveMetrics.get(name);
+    }
+
+    private MicroService startMicroIncoming(LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "SoakTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.soak.SoakTest$MicroIncoming");
+        props.setProperty(Starter.PROP_THREADS, "1");
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(dataLength));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(dataLength));
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroLoad extends MicroService {
+        private volatile ServiceMetrics metrics; // set once started, when the name is known
+
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            ServiceMetrics metrics = this.metrics;
+            if (metrics != null)
+                metrics.received();
+            sleepMillis(ThreadLocalRandom.current().nextInt(3));
+            sendResponse(requestId, null, null, null, data);
+            loadProcessed.increment();
+        }
+    }
+
+    public static class MicroBounce extends MicroService {
+        private volatile ServiceMetrics metrics; // set once started, when the name is known
+
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            ServiceMetrics metrics = this.metrics;
+            if (metrics != null)
+                metrics.received();
+            sendResponse(requestId, null, null, null, null);
+            bounceProcessed.increment();
+            int service = ThreadLocalRandom.current().nextInt(bounceMicroServices);
+            if (sendRequestExpectResponse(bounceNames[service], null).getRequestStatus() == RequestStatus.Ok)
+                bounceMetrics[service].sent(false);
+            else
+                bounceMetrics[service].refused();
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
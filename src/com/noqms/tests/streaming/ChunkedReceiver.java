@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.streaming;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Receiving side of ChunkedSender, called from processRequest with each chunk. Chunks may arrive in any order
+// and on any worker thread. Each stream is reassembled straight into a buffer sized from the first chunk seen,
+// and the completed payload is handed to the consumer on the thread that delivered the last missing chunk,
+// before that chunk is acknowledged. Streams abandoned by their sender are dropped after maxIdleMillis. Completed
+// stream ids are remembered for maxIdleMillis too, so a late duplicate chunk of a finished stream is dropped instead
+// of starting a new full size reassembly.
+
+public class ChunkedReceiver {
+    private final Map<Long, Reassembly> streams = new ConcurrentHashMap<>();
+    private final Map<Long, Long> completedMillis = new ConcurrentHashMap<>();
+    private final Consumer<byte[]> consumer;
+    private final long maxIdleMillis;
+
+    public ChunkedReceiver(Consumer<byte[]> consumer, long maxIdleMillis) {
+        this.consumer = consumer;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public void receive(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long streamId = buffer.getLong();
+        int payloadLength = buffer.getInt();
+        int chunkLength = buffer.getInt();
+        int index = buffer.getInt();
+
+        Reassembly reassembly = streams.get(streamId);
+        if (reassembly == null) {
+            if (completedMillis.containsKey(streamId))
+                return; // a late duplicate, the stream is complete
+            purgeIdle();
+            reassembly = streams.computeIfAbsent(streamId, id -> new Reassembly(payloadLength, chunkLength));
+        }
+
+        System.arraycopy(data, ChunkedSender.HEADER_BYTES, reassembly.payload, index * chunkLength,
+                data.length - ChunkedSender.HEADER_BYTES);
+        if (reassembly.markReceived(index)) {
+            completedMillis.put(streamId, System.currentTimeMillis()); // before the remove, see the check above
+            streams.remove(streamId);
+            consumer.accept(reassembly.payload);
+        }
+    }
+
+    public int getStreamsInProgress() {
+        return streams.size();
+    }
+
+    private void purgeIdle() {
+        long oldestMillis = System.currentTimeMillis() - maxIdleMillis;
+        for (Iterator<Reassembly> iterator = streams.values().iterator(); iterator.hasNext();)
+            if (iterator.next().lastReceivedMillis < oldestMillis)
+                iterator.remove();
+        completedMillis.values().removeIf(millis -> millis < oldestMillis);
+    }
+
+    private static class Reassembly {
+        private final byte[] payload;
+        private final BitSet received;
+        private final int chunks;
+        private int receivedChunks;
+        private volatile long lastReceivedMillis = System.currentTimeMillis();
+
+        private Reassembly(int payloadLength, int chunkLength) {
+            this.payload = new byte[payloadLength];
+            this.chunks = Math.max(1, (payloadLength + chunkLength - 1) / chunkLength);
+            this.received = new BitSet(chunks);
+        }
+
+        // Returns true only to the caller that completes the payload; duplicates of a chunk are not counted.
+        private synchronized boolean markReceived(int index) {
+            lastReceivedMillis = System.currentTimeMillis();
+            if (received.get(index))
+                return false;
+            received.set(index);
+            return ++receivedChunks == chunks;
+        }
+    }
+}
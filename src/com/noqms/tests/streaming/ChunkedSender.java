@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.streaming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+
+// Moves a payload larger than the max message size as a stream of chunk requests, each acknowledged by a response.
+// Up to window chunks are outstanding at once. A chunk that times out or is refused is sent again, up to
+// maxAttempts times, and the receiver ignores the duplicate if the first copy did arrive after all. A refused chunk
+// is sent again only after a pause that grows with its attempts, since resending straight into a full queue only
+// spins until the receiver catches up.
+// Chunk layout: stream id (8), payload length (4), chunk length (4), chunk index (4), chunk data. The chunk length
+// is the configured one, which places the chunk at index * chunk length; only the last chunk's data is shorter.
+
+public class ChunkedSender {
+    public static final int HEADER_BYTES = Long.BYTES + 3 * Integer.BYTES;
+
+    private final MicroService service;
+    private final String serviceNameTo;
+    private final int chunkLength;
+    private final int window;
+    private final int maxAttempts;
+    private final LongAdder retries = new LongAdder();
+
+    public ChunkedSender(MicroService service, String serviceNameTo, int chunkLength, int window, int maxAttempts) {
+        this.service = service;
+        this.serviceNameTo = serviceNameTo;
+        this.chunkLength = chunkLength;
+        this.window = window;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    // Returns when the receiver has acknowledged every chunk.
+    public void send(byte[] payload) throws IOException {
+        long streamId = ThreadLocalRandom.current().nextLong();
+        int chunks = Math.max(1, (payload.length + chunkLength - 1) / chunkLength);
+        ArrayDeque<InFlight> inFlight = new ArrayDeque<>(window);
+        int nextChunk = 0;
+        int acknowledged = 0;
+
+        while (acknowledged < chunks) {
+            while (nextChunk < chunks && inFlight.size() < window) {
+                InFlight chunk = new InFlight(nextChunk, createChunk(streamId, payload, nextChunk));
+                chunk.send();
+                inFlight.add(chunk);
+                nextChunk++;
+            }
+
+            InFlight oldest = inFlight.poll();
+            if (oldest.isAcknowledged()) {
+                acknowledged++;
+            } else if (oldest.attempts >= maxAttempts) {
+                throw new IOException("Chunk " + oldest.index + " of " + chunks + " to " + serviceNameTo
+                        + " failed after " + oldest.attempts + " attempts");
+            } else {
+                retries.increment();
+                if (oldest.isRefused())
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(oldest.attempts));
+                oldest.send();
+                inFlight.add(oldest);
+            }
+        }
+    }
+
+    private byte[] createChunk(long streamId, byte[] payload, int index) {
+        int offset = index * chunkLength;
+        int length = Math.min(chunkLength, payload.length - offset);
+        byte[] data = new byte[HEADER_BYTES + length];
+        ByteBuffer.wrap(data).putLong(streamId).putInt(payload.length).putInt(chunkLength).putInt(index);
+        System.arraycopy(payload, offset, data, HEADER_BYTES, length);
+        return data;
+    }
+
+    private class InFlight {
+        private final int index;
+        private final byte[] data;
+        private int attempts;
+        private ResponseFuture responseFuture;
+
+        private InFlight(int index, byte[] data) {
+            this.index = index;
+            this.data = data;
+        }
+
+        private void send() {
+            attempts++;
+            responseFuture = service.sendRequestExpectResponse(serviceNameTo, data);
+        }
+
+        private boolean isRefused() {
+            return responseFuture.getRequestStatus() != RequestStatus.Ok;
+        }
+
+        private boolean isAcknowledged() {
+            if (isRefused())
+                return false;
+            return !responseFuture.await().timedOut;
+        }
+    }
+}
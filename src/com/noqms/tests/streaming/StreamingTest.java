@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.streaming;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.Starter;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.PayloadGenerator;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Streams payloads larger than the max message size through ChunkedSender for every combination of chunk length
+// and window, and reports MB/s and per payload latency. The receiver checks every payload's checksum.
+
+public class StreamingTest {
+    private static final AtomicLong expectedChecksum = new AtomicLong();
+    private static final LongAdder payloadsReceived = new LongAdder();
+    private static final LongAdder payloadsCorrupt = new LongAdder();
+
+    private final int threads;
+    private final int payloadLength;
+    private final int payloadsPerRun;
+    private final int[] chunkLengths;
+    private final int[] windows;
+
+    public StreamingTest(int threads, int payloadLength, int payloadsPerRun, int[] chunkLengths, int[] windows) {
+        this.threads = threads;
+        this.payloadLength = payloadLength;
+        this.payloadsPerRun = payloadsPerRun;
+        this.chunkLengths = chunkLengths;
+        this.windows = windows;
+    }
+
+    public void run() throws Exception {
+        int maxMessageBytes = 0;
+        for (int chunkLength : chunkLengths)
+            maxMessageBytes = Math.max(maxMessageBytes, ChunkedSender.HEADER_BYTES + chunkLength);
+
+        CountingLogListener logListener = new CountingLogListener();
+        MicroService incoming = startMicroIncoming(maxMessageBytes, logListener);
+        startMicroTest(threads, maxMessageBytes, logListener);
+
+        byte[] payload = PayloadGenerator.fromName("random").generate(1, payloadLength, 0)[0];
+        expectedChecksum.set(checksum(payload));
+
+        for (int chunkLength : chunkLengths) {
+            for (int window : windows) {
+                ChunkedSender sender = new ChunkedSender(incoming, "Test", chunkLength, window, 5);
+                sender.send(payload); // warm up this configuration
+
+                LatencyHistogram latency = new LatencyHistogram();
+                long receivedBefore = payloadsReceived.sum();
+                long corruptBefore = payloadsCorrupt.sum();
+                long warningsBefore = logListener.getWarnings();
+                long startNanos = System.nanoTime();
+                for (int ix = 0; ix < payloadsPerRun; ix++) {
+                    long sendNanos = System.nanoTime();
+                    sender.send(payload);
+                    latency.record(System.nanoTime() - sendNanos);
+                }
+                long elapsedNanos = System.nanoTime() - startNanos;
+
+                double megabytesPerSecond = (double)payloadLength * payloadsPerRun / 1000000
+                        / (elapsedNanos / (double)TimeUnit.SECONDS.toNanos(1));
+                System.out.println("payloadBytes=" + payloadLength + " chunkBytes=" + chunkLength + " window="
+                        + window + " MBPerSecond=" + String.format("%.1f", megabytesPerSecond) + " payloads="
+                        + (payloadsReceived.sum() - receivedBefore) + " corrupt="
+                        + (payloadsCorrupt.sum() - corruptBefore) + " retries=" + sender.getRetries() + " warnings="
+                        + (logListener.getWarnings() - warningsBefore) + " latency " + latency.toMicrosString());
+            }
+        }
+        System.out.println(logListener);
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private void startMicroTest(int threads, int maxMessageBytes, LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "StreamingTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Test");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.streaming.StreamingTest$MicroTest");
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "1000");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxMessageBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "0");
+        Starter.start(props, logListener);
+    }
+
+    private MicroService startMicroIncoming(int maxMessageBytes, LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "StreamingTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, "Incoming");
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.streaming.StreamingTest$MicroIncoming");
+        props.setProperty(Starter.PROP_THREADS, "1");
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "1000");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "0");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxMessageBytes));
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroTest extends MicroService {
+        private final ChunkedReceiver receiver = new ChunkedReceiver(payload -> {
+            if (checksum(payload) != expectedChecksum.get())
+                payloadsCorrupt.increment();
+            payloadsReceived.increment();
+        }, TimeUnit.SECONDS.toMillis(10));
+
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            receiver.receive(data);
+            sendResponse(requestId, null, null, null, null);
+        }
+    }
+}
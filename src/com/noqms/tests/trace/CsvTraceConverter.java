@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Turns a request log exported from production into a trace. One request per line, in send order:
+//   timestampMicros,source,target,payloadBytes,expectsResponse
+// The timestamp may use any epoch since only the gaps between requests are kept. expectsResponse is true/false or
+// 1/0. Blank lines and lines starting with # are skipped.
+
+public class CsvTraceConverter {
+    public static int convert(Path csvFile, Path traceFile) throws IOException {
+        int records = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+                TraceWriter writer = new TraceWriter(traceFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split(",");
+                if (fields.length != 5)
+                    throw new IOException("Expected 5 fields at line " + lineNumber + ": " + line);
+                try {
+                    long timestampNanos = 1000 * Long.parseLong(fields[0].trim());
+                    String expectsResponse = fields[4].trim();
+                    writer.record(timestampNanos, fields[1].trim(), fields[2].trim(),
+                            Integer.parseInt(fields[3].trim()),
+                            expectsResponse.equalsIgnoreCase("true") || expectsResponse.equals("1"));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Bad number at line " + lineNumber + ": " + line);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+}
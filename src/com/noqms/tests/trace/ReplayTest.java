@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Replays a recorded trace: every service named in it is started, and each request is sent from its source to its
+// target at the recorded time divided by the speed, so the gaps between requests and the mix of services, payload
+// sizes and one-way versus request/response are those of the trace. Latency is measured from when a request was due
+// rather than when it went out, so falling behind the trace shows up as latency instead of being hidden.
+// Responses are awaited by a pool of threads in send order, so a slow response can delay the recording of faster
+// ones behind it - use enough await threads to cover the requests in flight.
+// Timeouts and refusals at recorded rates are what the replay is after, so warnings are counted, not fatal.
+
+public class ReplayTest {
+    private static final LongAdder processed = new LongAdder();
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Path traceFile;
+    private final double speed;
+    private final int threadsPerMicroService;
+    private final int awaitThreads;
+
+    public ReplayTest(Path traceFile, double speed, int threadsPerMicroService, int awaitThreads) {
+        this.traceFile = traceFile;
+        this.speed = speed;
+        this.threadsPerMicroService = threadsPerMicroService;
+        this.awaitThreads = awaitThreads;
+    }
+
+    public void run() throws Exception {
+        TraceReader trace = new TraceReader(traceFile);
+        int records = trace.getRecordCount();
+        if (records == 0)
+            throw new IllegalArgumentException("The trace is empty: " + traceFile);
+        // one preallocated payload per distinct size, so the dispatch loop never allocates
+        Map<Integer, byte[]> payloads = new HashMap<>();
+        int maxPayloadBytes = 0;
+        for (int record = 0; record < records; record++) {
+            int payloadBytes = trace.getPayloadBytes(record);
+            maxPayloadBytes = Math.max(maxPayloadBytes, payloadBytes);
+            if (payloadBytes > 0)
+                payloads.computeIfAbsent(payloadBytes, byte[]::new);
+        }
+        System.out.println("records=" + records + " services=" + trace.getServiceCount() + " traceSeconds="
+                + String.format("%.1f", trace.getDurationNanos() / 1e9) + " speed=" + speed + " maxPayloadBytes="
+                + maxPayloadBytes);
+
+        CountingLogListener logListener = new CountingLogListener();
+        MicroService[] services = new MicroService[trace.getServiceCount()];
+        ServiceStats[] stats = new ServiceStats[trace.getServiceCount()];
+        for (int service = 0; service < services.length; service++) {
+            services[service] = startMicroService(trace.getServiceName(service), maxPayloadBytes, logListener);
+            stats[service] = new ServiceStats(trace.getServiceName(service));
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+        AwaitThread[] awaiters = new AwaitThread[awaitThreads];
+        for (int ix = 0; ix < awaitThreads; ix++) {
+            awaiters[ix] = new AwaitThread(pending, latency);
+            awaiters[ix].start();
+        }
+
+        LatencyHistogram scheduleLag = new LatencyHistogram();
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int record = 0; record < records; record++) {
+            long dueNanos = startNanos + (long)(trace.getOffsetNanos(record) / speed);
+            waitUntil(dueNanos);
+            scheduleLag.record(System.nanoTime() - dueNanos);
+            int payloadBytes = trace.getPayloadBytes(record);
+            byte[] data = payloadBytes == 0 ? null : payloads.get(payloadBytes);
+            MicroService source = services[trace.getSource(record)];
+            ServiceStats target = stats[trace.getTarget(record)];
+            target.requests.increment();
+            if (trace.expectsResponse(record)) {
+                ResponseFuture responseFuture = source.sendRequestExpectResponse(target.name, data);
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok)
+                    pending.add(new Pending(responseFuture, dueNanos, target));
+                else
+                    target.refused.increment();
+            } else if (source.sendRequest(target.name, data) != RequestStatus.Ok) {
+                target.refused.increment();
+            }
+        }
+        double replaySeconds = (System.nanoTime() - startNanos) / 1e9;
+        for (int ix = 0; ix < awaitThreads; ix++)
+            pending.add(Pending.END);
+        for (int ix = 0; ix < awaitThreads; ix++)
+            awaiters[ix].join();
+        sleepMillis(1000); // let the last one-way requests arrive
+
+        long refused = 0;
+        long timedOut = 0;
+        for (ServiceStats serviceStats : stats) {
+            refused += serviceStats.refused.sum();
+            timedOut += serviceStats.timedOut.sum();
+            if (serviceStats.requests.sum() > 0)
+                System.out.println(serviceStats);
+        }
+        System.out.println("replaySeconds=" + String.format("%.1f", replaySeconds) + " requestsPerSecond="
+                + (long)(records / replaySeconds) + " processed=" + processed.sum() + " refused=" + refused
+                + " timedOut=" + timedOut + "\n  latency " + latency.toMicrosString() + "\n  scheduleLag "
+                + scheduleLag.toMicrosString());
+        System.out.println(logListener);
+        new BenchmarkResult().put("requestsPerSecond", (long)(records / replaySeconds)).put("refused", refused)
+                .put("timedOut", timedOut).putLatency("latency", latency)
+                .put("scheduleLagP99Micros", TimeUnit.NANOSECONDS.toMicros(scheduleLag.getPercentileNanos(99)))
+                .put("warnings", logListener.getWarnings()).print();
+    }
+
+    // Parks for most of the gap and spins the rest, since a park alone overshoots by tens of micros.
+    private static void waitUntil(long dueNanos) {
+        long remainingNanos;
+        while ((remainingNanos = dueNanos - System.nanoTime()) > 0) {
+            if (remainingNanos > SPIN_NANOS)
+                LockSupport.parkNanos(remainingNanos - SPIN_NANOS);
+            else
+                Thread.onSpinWait();
+        }
+    }
+
+    private static class ServiceStats {
+        private final String name;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder refused = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private ServiceStats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "service=" + name + " requests=" + requests.sum() + " refused=" + refused.sum() + " timedOut="
+                    + timedOut.sum() + " latency " + latency.toMicrosString();
+        }
+    }
+
+    private static class Pending {
+        private static final Pending END = new Pending(null, 0, null);
+
+        private final ResponseFuture responseFuture;
+        private final long dueNanos;
+        private final ServiceStats target;
+
+        private Pending(ResponseFuture responseFuture, long dueNanos, ServiceStats target) {
+            this.responseFuture = responseFuture;
+            this.dueNanos = dueNanos;
+            this.target = target;
+        }
+    }
+
+    private static class AwaitThread extends Thread {
+        private final BlockingQueue<Pending> pending;
+        private final LatencyHistogram latency;
+
+        public AwaitThread(BlockingQueue<Pending> pending, LatencyHistogram latency) {
+            this.pending = pending;
+            this.latency = latency;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                Pending next;
+                while ((next = pending.take()) != Pending.END) {
+                    if (next.responseFuture.await().timedOut) {
+                        next.target.timedOut.increment();
+                    } else {
+                        long nanos = System.nanoTime() - next.dueNanos;
+                        next.target.latency.record(nanos);
+                        latency.record(nanos);
+                    }
+                }
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+
+    private MicroService startMicroService(String name, int maxMessageBytes, LogListener logListener)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, "ReplayTest");
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
+        props.setProperty(Starter.PROP_SERVICE_PATH, "com.noqms.tests.trace.ReplayTest$MicroReplay");
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threadsPerMicroService));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, "100");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, String.valueOf(maxMessageBytes));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, String.valueOf(maxMessageBytes));
+        return Starter.start(props, logListener);
+    }
+
+    // Every traced service both sends and answers. The trace has no response sizes, so responses are empty.
+    public static class MicroReplay extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            if (requestId != null)
+                sendResponse(requestId, null, null, null, null);
+            processed.increment();
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.nio.file.Paths;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.trace.Run_CsvTraceConverter <requests.csv> <requests.trace>
+// See CsvTraceConverter for the csv columns. Replay the trace with Run_ReplayTest.
+
+// This can also be directly run from an IDE.
+
+public class Run_CsvTraceConverter {
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: Run_CsvTraceConverter <requests.csv> <requests.trace>");
+            return;
+        }
+        try {
+            int records = CsvTraceConverter.convert(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.println("records=" + records + " trace=" + args[1]);
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.nio.file.Paths;
+
+import com.noqms.tests.util.ForkRunner;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * com.noqms.tests.trace.Run_ReplayTest <requests.trace> <speed>
+// speed: 1 replays at the recorded pace, 2 twice as fast, 0.5 half as fast (default 1)
+// A trace comes from TraceWriter or from a production request log via Run_CsvTraceConverter.
+
+// Add -Dnoqms.tests.forks=5 to repeat the test in 5 fresh JVMs and report means with confidence intervals.
+// Add -Dnoqms.tests.baseline=baseline.properties to record the results or gate them against a recorded baseline.
+
+// This test can also be directly run from an IDE.
+
+public class Run_ReplayTest {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: Run_ReplayTest <requests.trace> [speed]");
+            return;
+        }
+        if (ForkRunner.forkIfRequested(Run_ReplayTest.class, args))
+            return;
+
+        int threadsPerMicroService = 10;
+        int awaitThreads = 100;
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+        ReplayTest test = new ReplayTest(Paths.get(args[0]), speed, threadsPerMicroService, awaitThreads);
+        try {
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
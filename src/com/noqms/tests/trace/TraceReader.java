@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Memory maps a trace written by TraceWriter. Records are read in place by index so replaying a large trace
+// allocates nothing per request and leaves paging to the OS. One mapping limits a trace to 2GB, about 126 million
+// requests.
+
+public class TraceReader {
+    private final MappedByteBuffer buffer;
+    private final String[] serviceNames;
+    private final int records;
+
+    public TraceReader(Path file) throws IOException {
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Trace file is larger than 2GB: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (size < TraceWriter.HEADER_BYTES + TraceWriter.FOOTER_BYTES || buffer.getInt(0) != TraceWriter.MAGIC
+                || buffer.getInt((int)size - 4) != TraceWriter.MAGIC)
+            throw new IOException("Not a complete trace file: " + file);
+        if (buffer.getInt(4) != TraceWriter.VERSION)
+            throw new IOException("Unsupported trace version " + buffer.getInt(4) + ": " + file);
+
+        long tableOffset = buffer.getLong((int)size - TraceWriter.FOOTER_BYTES);
+        records = buffer.getInt((int)size - 8);
+        if (tableOffset != TraceWriter.HEADER_BYTES + (long)records * TraceWriter.RECORD_BYTES)
+            throw new IOException("Corrupt trace file: " + file);
+        byte[] table = new byte[(int)(size - TraceWriter.FOOTER_BYTES - tableOffset)];
+        ByteBuffer tableBuffer = buffer.duplicate();
+        tableBuffer.position((int)tableOffset);
+        tableBuffer.get(table);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+        serviceNames = new String[in.readInt()];
+        for (int ix = 0; ix < serviceNames.length; ix++)
+            serviceNames[ix] = in.readUTF();
+    }
+
+    public int getRecordCount() {
+        return records;
+    }
+
+    public int getServiceCount() {
+        return serviceNames.length;
+    }
+
+    public String getServiceName(int service) {
+        return serviceNames[service];
+    }
+
+    // Nanos since the first request.
+    public long getOffsetNanos(int record) {
+        return buffer.getLong(position(record));
+    }
+
+    public int getSource(int record) {
+        return buffer.getShort(position(record) + 8) & 0xFFFF;
+    }
+
+    public int getTarget(int record) {
+        return buffer.getShort(position(record) + 10) & 0xFFFF;
+    }
+
+    public int getPayloadBytes(int record) {
+        return buffer.getInt(position(record) + 12);
+    }
+
+    public boolean expectsResponse(int record) {
+        return buffer.get(position(record) + 16) != 0;
+    }
+
+    public long getDurationNanos() {
+        return records == 0 ? 0 : getOffsetNanos(records - 1);
+    }
+
+    private static int position(int record) {
+        return TraceWriter.HEADER_BYTES + record * TraceWriter.RECORD_BYTES;
+    }
+}
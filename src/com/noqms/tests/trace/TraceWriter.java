@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Writes a traffic trace: one fixed length record per request, in send order, so a replay can map the file and step
+// through it without parsing. Service names are kept once in a table at the end of the file.
+// Layout, big endian:
+//   header:  int magic, int version
+//   records: long nanos since the first request, short source, short target, int payload bytes,
+//            byte expects response
+//   table:   int service count, then each service name as modified UTF-8 (DataOutput.writeUTF)
+//   footer:  long table offset, int record count, int magic
+
+public class TraceWriter implements Closeable {
+    static final int MAGIC = 0x4E515452; // NQTR
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 17;
+    static final int FOOTER_BYTES = 16;
+    static final int MAX_SERVICES = 0xFFFF;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> serviceIndexes = new LinkedHashMap<>();
+    private long firstNanos = -1;
+    private long lastOffsetNanos;
+    private int records;
+
+    public TraceWriter(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    // Safe to call from several threads. A timestamp earlier than the last one recorded, as happens when concurrent
+    // senders race here, is moved up to it so the trace stays in send order.
+    public synchronized void record(long timestampNanos, String source, String target, int payloadBytes,
+            boolean expectsResponse) throws IOException {
+        if (firstNanos < 0)
+            firstNanos = timestampNanos;
+        lastOffsetNanos = Math.max(lastOffsetNanos, timestampNanos - firstNanos);
+        out.writeLong(lastOffsetNanos);
+        out.writeShort(getServiceIndex(source));
+        out.writeShort(getServiceIndex(target));
+        out.writeInt(payloadBytes);
+        out.writeByte(expectsResponse ? 1 : 0);
+        records++;
+    }
+
+    private int getServiceIndex(String name) {
+        Integer index = serviceIndexes.get(name);
+        if (index == null) {
+            if (serviceIndexes.size() == MAX_SERVICES)
+                throw new IllegalStateException("A trace holds at most " + MAX_SERVICES + " services");
+            index = serviceIndexes.size();
+            serviceIndexes.put(name, index);
+        }
+        return index;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        long tableOffset = HEADER_BYTES + (long)records * RECORD_BYTES;
+        out.writeInt(serviceIndexes.size());
+        for (String name : serviceIndexes.keySet())
+            out.writeUTF(name);
+        out.writeLong(tableOffset);
+        out.writeInt(records);
+        out.writeInt(MAGIC);
+        out.close();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.tuning;
+
+import com.noqms.tests.util.ForkRunner;
+import com.noqms.tests.util.SizeDistribution;
+
+// Compile the tests, including this one, into a jar file and put the jar file in the same directory as noqms jar and gson jar.
+// cd to that directory and execute the following command:
+// java -server -cp * -Dnoqms.tests.measureSeconds=20 com.noqms.tests.tuning.Run_ThreadTuningTest_200MicrosCpu_2MillisWait_2000PerSecond [cpuMicros] [waitMicros] [requestsPerSecond]
+// Defaults to 200 micros of cpu and a median of 2 millis of waiting per request, at 2000 requests a second, which
+// keeps about 0.4 cores and 4.4 threads busy on average. The SLO is a p99 of 20 millis with no timeouts.
+// cpuMicros and waitMicros: <micros>, fixed:<micros>, uniform:<min>:<max>, lognormal:<median>:<sigma>,
+// bimodal:<small>:<large>:<fraction>
+
+// This test can also be directly run from an IDE.
+
+public class Run_ThreadTuningTest_200MicrosCpu_2MillisWait_2000PerSecond {
+    public static void main(String[] args) {
+        if (ForkRunner.forkIfRequested(Run_ThreadTuningTest_200MicrosCpu_2MillisWait_2000PerSecond.class, args))
+            return;
+
+        int[] candidates = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+        String cpuMicros = args.length > 0 ? args[0] : "fixed:200";
+        String waitMicros = args.length > 1 ? args[1] : "lognormal:2000:0.5";
+        double requestsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 2000;
+        long sloP99Micros = 20000;
+        int timeoutMillis = 100;
+
+        try {
+            ThreadTuningTest test = new ThreadTuningTest(candidates, SizeDistribution.fromName(cpuMicros),
+                    SizeDistribution.fromName(waitMicros), requestsPerSecond, sloP99Micros, timeoutMillis);
+            test.run();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
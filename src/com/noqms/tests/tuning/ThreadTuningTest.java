@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.tuning;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.LogListener;
+import com.noqms.MicroService;
+import com.noqms.ResponseFuture;
+import com.noqms.Starter;
+import com.noqms.tests.util.BenchmarkResult;
+import com.noqms.tests.util.ContextSwitches;
+import com.noqms.tests.util.CountingLogListener;
+import com.noqms.tests.util.LatencyHistogram;
+import com.noqms.tests.util.OpenLoopSender;
+import com.noqms.tests.util.ResponseAwaiter;
+import com.noqms.tests.util.SizeDistribution;
+import com.noqms.tests.util.SteadyStateMeter;
+
+// This is a self-contained test and may run many microservices in the same process. 
+// Under normal circumstances a microservice is hosted singularly in its own (virtual) environment.
+// Starting multiple microservices linearly typically takes seconds each.
+
+// Finds the PROP_THREADS to give a responder for its service time profile and offered load. Each request costs
+// cpuMicros of computation followed by waitMicros of blocking (a database or another service), both drawn from a
+// SizeDistribution. For every candidate thread count a fresh responder is started in its own group, offered the same
+// open loop load and measured, and the candidate with the highest answered rate whose p99 is within the SLO wins.
+// The cpu time and context switches per request of every candidate show what the larger pools cost. The cpu time is
+// that of the responder's own threads, which note their ids as they serve requests; the context switches are only
+// available for the whole process. Answers are timed when they arrive, by a ResponseAwaiter.
+// -Dnoqms.tests.measureSeconds shortens each candidate's measurement when there are many candidates.
+
+public class ThreadTuningTest {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static volatile SizeDistribution cpuMicros;
+    private static volatile SizeDistribution waitMicros;
+    private static volatile AtomicLongArray responderThreadIds;
+
+    private final int[] candidates;
+    private final double requestsPerSecond;
+    private final long sloP99Micros;
+    private final int timeoutMillis;
+
+    public ThreadTuningTest(int[] candidates, SizeDistribution cpuMicros, SizeDistribution waitMicros,
+            double requestsPerSecond, long sloP99Micros, int timeoutMillis) {
+        this.candidates = candidates;
+        this.requestsPerSecond = requestsPerSecond;
+        this.sloP99Micros = sloP99Micros;
+        this.timeoutMillis = timeoutMillis;
+        ThreadTuningTest.cpuMicros = cpuMicros;
+        ThreadTuningTest.waitMicros = waitMicros;
+    }
+
+    public void run() throws Exception {
+        System.out.println("cpuMicros=" + cpuMicros.getName() + " waitMicros=" + waitMicros.getName()
+                + " requestsPerSecond=" + (long)requestsPerSecond + " sloP99Micros=" + sloP99Micros
+                + " contextSwitches=" + (ContextSwitches.isAvailable() ? "available" : "unavailable"));
+        CountingLogListener logListener = new CountingLogListener(100000); // small pools time out on purpose
+        List<Outcome> outcomes = new ArrayList<>();
+        for (int threads : candidates)
+            outcomes.add(runCandidate(threads, logListener));
+
+        Outcome best = null;
+        for (Outcome outcome : outcomes)
+            if (outcome.withinSlo && (best == null || outcome.answeredPerSecond > best.answeredPerSecond))
+                best = outcome;
+        BenchmarkResult benchmarkResult = new BenchmarkResult();
+        for (Outcome outcome : outcomes)
+            outcome.put(benchmarkResult);
+        if (best == null)
+            System.out.println("bestThreads=none, no candidate met the SLO");
+        else {
+            System.out.println("bestThreads=" + best.threads + " answeredPerSecond=" + best.answeredPerSecond
+                    + " p99Micros=" + TimeUnit.NANOSECONDS.toMicros(best.latency.getPercentileNanos(99)));
+            for (Outcome outcome : outcomes)
+                if (outcome.threads > best.threads)
+                    System.out.println(String.format("oversized threads=%d responderCpuPerRequestPercent=%+.0f "
+                            + "processContextSwitchesPerRequestPercent=%+.0f", outcome.threads,
+                            percentChange(best.cpuMicrosPerRequest, outcome.cpuMicrosPerRequest),
+                            percentChange(best.switchesPerRequest, outcome.switchesPerRequest)));
+            benchmarkResult.put("bestThreads", best.threads).put("bestAnsweredPerSecond", best.answeredPerSecond)
+                    .putLatency("best", best.latency);
+        }
+        logListener.close();
+        System.out.println(logListener);
+        benchmarkResult.put("warnings", logListener.getWarnings()).print();
+    }
+
+    private static double percentChange(double before, double after) {
+        return before == 0 ? 0 : 100 * (after - before) / before;
+    }
+
+    private Outcome runCandidate(int threads, CountingLogListener logListener) throws Exception {
+        String group = "ThreadTuningTest_" + threads + "Threads";
+        responderThreadIds = new AtomicLongArray(threads);
+        MicroService incoming = startMicroService(group, "Incoming",
+                "com.noqms.tests.tuning.ThreadTuningTest$MicroIncoming", 1, logListener);
+        MicroService responder = startMicroService(group, "Responder",
+                "com.noqms.tests.tuning.ThreadTuningTest$MicroResponder", threads, logListener);
+
+        Candidate candidate = new Candidate(incoming);
+        candidate.sender.start();
+
+        AtomicReference<Usage> measureStart = new AtomicReference<>();
+        SteadyStateMeter meter = new SteadyStateMeter("ThreadTuningTest " + threads + " threads",
+                candidate.answered::sum, candidate.interval);
+        meter.reportLogEvents(logListener);
+        meter.onMeasureStart(() -> measureStart.set(new Usage(candidate)));
+        SteadyStateMeter.Result result = meter.measure();
+        Usage usage = new Usage(candidate).minus(measureStart.get());
+        candidate.sender.stopSending();
+        candidate.awaiter.stop();
+        responder.drain();
+        incoming.drain();
+
+        Outcome outcome = new Outcome(threads, result, usage, candidate.awaiter.getLate());
+        System.out.println(outcome);
+        sleepMillis(2 * timeoutMillis); // let the drained services finish before the next candidate
+        return outcome;
+    }
+
+    private class Candidate {
+        private final LatencyHistogram interval = new LatencyHistogram();
+        private final LongAdder answered = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final ResponseAwaiter awaiter = new ResponseAwaiter("ThreadTuning", this::answer);
+        private final OpenLoopSender sender;
+
+        private Candidate(MicroService incoming) {
+            sender = new OpenLoopSender(incoming, "Responder", requestsPerSecond, () -> null, awaiter);
+        }
+
+        private void answer(ResponseFuture.Response response, long latencyNanos) {
+            if (response.timedOut)
+                timedOut.increment();
+            else {
+                interval.record(latencyNanos);
+                answered.increment();
+            }
+        }
+    }
+
+    private static class Usage {
+        private long nanos = System.nanoTime();
+        private long answered;
+        private long timedOut;
+        private long refused;
+        private long cpuNanos = getResponderCpuNanos();
+        private ContextSwitches switches = ContextSwitches.read();
+
+        private Usage(Candidate candidate) {
+            answered = candidate.answered.sum();
+            timedOut = candidate.timedOut.sum();
+            refused = candidate.sender.getRefused();
+        }
+
+        private Usage minus(Usage start) {
+            nanos -= start.nanos;
+            answered -= start.answered;
+            timedOut -= start.timedOut;
+            refused -= start.refused;
+            cpuNanos -= start.cpuNanos;
+            switches = switches.minus(start.switches);
+            return this;
+        }
+    }
+
+    private class Outcome {
+        private final int threads;
+        private final LatencyHistogram latency;
+        private final long answeredPerSecond;
+        private final long timedOutPerSecond;
+        private final long refusedPerSecond;
+        private final long cpuMillisPerSecond;
+        private final double cpuMicrosPerRequest;
+        private final long voluntarySwitchesPerSecond;
+        private final long involuntarySwitchesPerSecond;
+        private final double switchesPerRequest;
+        private final boolean withinSlo;
+        private final boolean steady;
+        private final long lateTimed;
+
+        private Outcome(int threads, SteadyStateMeter.Result result, Usage usage, long lateTimed) {
+            this.threads = threads;
+            this.lateTimed = lateTimed;
+            latency = result.latency;
+            steady = result.steady;
+            double seconds = usage.nanos / (double)TimeUnit.SECONDS.toNanos(1);
+            answeredPerSecond = (long)(usage.answered / seconds);
+            timedOutPerSecond = (long)(usage.timedOut / seconds);
+            refusedPerSecond = (long)(usage.refused / seconds);
+            cpuMillisPerSecond = (long)(TimeUnit.NANOSECONDS.toMillis(usage.cpuNanos) / seconds);
+            long requests = Math.max(1, usage.answered + usage.timedOut);
+            cpuMicrosPerRequest = usage.cpuNanos / 1000.0 / requests;
+            voluntarySwitchesPerSecond = (long)(usage.switches.voluntary / seconds);
+            involuntarySwitchesPerSecond = (long)(usage.switches.involuntary / seconds);
+            switchesPerRequest = (usage.switches.voluntary + usage.switches.involuntary) / (double)requests;
+            withinSlo = usage.timedOut == 0 && usage.refused == 0
+                    && TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99)) <= sloP99Micros;
+        }
+
+        private void put(BenchmarkResult benchmarkResult) {
+            String prefix = "threads" + threads;
+            benchmarkResult.put(prefix + "AnsweredPerSecond", answeredPerSecond)
+                    .put(prefix + "P99Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99)))
+                    .put(prefix + "ResponderCpuMicrosPerRequest", cpuMicrosPerRequest)
+                    .put(prefix + "ProcessContextSwitchesPerRequest", switchesPerRequest);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threads=%d answeredPerSecond=%d timedOutPerSecond=%d refusedPerSecond=%d "
+                    + "responderCpuMillisPerSecond=%d responderCpuMicrosPerRequest=%.1f "
+                    + "processVoluntarySwitchesPerSecond=%d processInvoluntarySwitchesPerSecond=%d "
+                    + "processSwitchesPerRequest=%.2f lateTimed=%d withinSlo=%b steady=%b latency %s",
+                    threads, answeredPerSecond, timedOutPerSecond, refusedPerSecond, cpuMillisPerSecond,
+                    cpuMicrosPerRequest, voluntarySwitchesPerSecond, involuntarySwitchesPerSecond,
+                    switchesPerRequest, lateTimed, withinSlo, steady, latency.toMicrosString());
+        }
+    }
+
+    // A thread that first serves a request during the measurement is charged with all its cpu time, but the pool is
+    // busy well before the measurement starts.
+    private static long getResponderCpuNanos() {
+        AtomicLongArray threadIds = responderThreadIds;
+        long cpuNanos = 0;
+        for (int ix = 0; ix < threadIds.length(); ix++) {
+            long threadId = threadIds.get(ix);
+            long threadCpuNanos = threadId == 0 ? -1 : threadBean.getThreadCpuTime(threadId);
+            if (threadCpuNanos > 0)
+                cpuNanos += threadCpuNanos;
+        }
+        return cpuNanos;
+    }
+
+    private MicroService startMicroService(String group, String name, String path, int threads,
+            LogListener logListener) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Starter.PROP_GROUP_NAME, group);
+        props.setProperty(Starter.PROP_SERVICE_NAME, name);
+        props.setProperty(Starter.PROP_SERVICE_PATH, path);
+        props.setProperty(Starter.PROP_THREADS, String.valueOf(threads));
+        props.setProperty(Starter.PROP_TIMEOUT_MILLIS, String.valueOf(timeoutMillis));
+        props.setProperty(Starter.PROP_MAX_MESSAGE_IN_BYTES, "0");
+        props.setProperty(Starter.PROP_MAX_MESSAGE_OUT_BYTES, "0");
+        return Starter.start(props, logListener);
+    }
+
+    public static class MicroIncoming extends MicroService {
+    }
+
+    public static class MicroResponder extends MicroService {
+        @Override
+        public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
+            AtomicLongArray threadIds = responderThreadIds;
+            if (threadIndex < threadIds.length() && threadIds.get(threadIndex) == 0)
+                threadIds.set(threadIndex, Thread.currentThread().getId());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            spinMicros(cpuMicros.next(random, 0, Integer.MAX_VALUE));
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(waitMicros.next(random, 0, Integer.MAX_VALUE)));
+            sendResponse(requestId, null, null, null, null);
+        }
+    }
+
+    // Keeps the cpu busy rather than sleeping, so oversubscribed cores show up as longer service times.
+    private static long spinMicros(long micros) {
+        long endNanos = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        long sink = 0;
+        while (System.nanoTime() < endNanos)
+            for (int ix = 0; ix < 100; ix++)
+                sink += ix * 31L ^ sink;
+        return sink;
+    }
+
+    private static void sleepMillis(long millis) {
+        long sleptMillis = 0;
+        while (sleptMillis < millis) {
+            long millisStart = System.currentTimeMillis();
+            try {
+                Thread.sleep(millis - sleptMillis);
+            } catch (Exception ex) {
+            }
+            sleptMillis += System.currentTimeMillis() - millisStart;
+        }
+    }
+}
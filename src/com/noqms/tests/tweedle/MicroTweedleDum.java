@@ -16,21 +16,29 @@
 
 package com.noqms.tests.tweedle;
 
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.google.gson.Gson;
 import com.noqms.MicroService;
 import com.noqms.RequestStatus;
 import com.noqms.ResponseFuture;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.codec.CodecType;
 
 public class MicroTweedleDum extends MicroService {
-    private final Gson gson = new Gson();
+    private final Codec<ModelRequest> requestCodec = TweedleCodecs.createRequestCodec(CodecType.fromSystemProperty());
+    private final Codec<ModelResponse> responseCodec = TweedleCodecs.createResponseCodec(CodecType.fromSystemProperty());
     private final AtomicInteger counterGenerator = new AtomicInteger();
+    private final TweedleBenchmark benchmark;
 
     public MicroTweedleDum() {
-        SendThread thread = new SendThread();
-        thread.start();
+        if (TweedleBenchmark.isEnabled()) {
+            benchmark = new TweedleBenchmark(this, "Tweedle Dee", requestCodec, responseCodec);
+            benchmark.start();
+        } else {
+            benchmark = null;
+            SendThread thread = new SendThread();
+            thread.start();
+        }
     }
 
     private class SendThread extends Thread {
@@ -42,13 +50,13 @@ public class MicroTweedleDum extends MicroService {
             while (true) {
                 ModelRequest requestModel = new ModelRequest();
                 requestModel.counter = counterGenerator.incrementAndGet();
-                byte[] data = gson.toJson(requestModel).getBytes(StandardCharsets.UTF_8);
+                byte[] data = requestCodec.encode(requestModel);
 
                 ResponseFuture responseFuture = sendRequestExpectResponse("Tweedle Dee", data);
                 if (responseFuture.getRequestStatus() == RequestStatus.Ok) {
                     ResponseFuture.Response response = responseFuture.await();
                     if (!response.timedOut) {
-                        ModelResponse modelResponse = gson.fromJson(new String(response.data, StandardCharsets.UTF_8), ModelResponse.class);
+                        ModelResponse modelResponse = responseCodec.decode(response.data);
                         System.out.println(modelResponse.counter);
                     }
                 }
@@ -62,12 +70,18 @@ public class MicroTweedleDum extends MicroService {
 
     @Override
     public void processRequest(Long requestId, String serviceNameFrom, byte[] data, int threadIndex) {
-        ModelRequest request = gson.fromJson(new String(data, StandardCharsets.UTF_8), ModelRequest.class);
+        if (benchmark != null) {
+            if (requestId != null)
+                sendResponse(requestId, null, null, null, benchmark.createResponse(data));
+            return;
+        }
+
+        ModelRequest request = requestCodec.decode(data);
 
         if (requestId != null) {
             ModelResponse response = new ModelResponse();
             response.counter = request.counter;
-            sendResponse(requestId, null, null, null, gson.toJson(response).getBytes(StandardCharsets.UTF_8));
+            sendResponse(requestId, null, null, null, responseCodec.encode(response));
         }
     }
 }
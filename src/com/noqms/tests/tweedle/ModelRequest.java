@@ -18,4 +18,5 @@ package com.noqms.tests.tweedle;
 
 public class ModelRequest {
     public Integer counter;
+    public Long sendNanos;
 }   
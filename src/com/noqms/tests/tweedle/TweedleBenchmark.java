@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.tweedle;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.util.LatencyHistogram;
+
+// Full duplex benchmark mode for the tweedle services. Each side runs the same sender at the same time, so
+// requests flow in both directions between the two processes while each side also serves the other's requests.
+// The send nanotime travels in the request and is echoed back in the response, and the round trip is computed
+// against the sender's own clock, so no clock agreement is needed between the processes.
+// Enabled when the system property tweedle.ratePerSecond is greater than zero - see Run_TweedleTest.
+
+class TweedleBenchmark {
+    static final String PROP_RATE_PER_SECOND = "tweedle.ratePerSecond";
+    static final String PROP_SENDER_THREADS = "tweedle.senderThreads";
+    static final String PROP_DURATION_SECONDS = "tweedle.durationSeconds";
+
+    private final MicroService service;
+    private final String serviceNameTo;
+    private final Codec<ModelRequest> requestCodec;
+    private final Codec<ModelResponse> responseCodec;
+    private final int ratePerSecond;
+    private final int senderThreads;
+    private final int durationSeconds;
+
+    private final AtomicInteger counterGenerator = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder badReplies = new LongAdder();
+    private final LatencyHistogram intervalRtt = new LatencyHistogram();
+    private final LatencyHistogram totalRtt = new LatencyHistogram();
+    private volatile boolean stop;
+
+    static boolean isEnabled() {
+        return Integer.getInteger(PROP_RATE_PER_SECOND, 0) > 0;
+    }
+
+    TweedleBenchmark(MicroService service, String serviceNameTo, Codec<ModelRequest> requestCodec,
+            Codec<ModelResponse> responseCodec) {
+        this.service = service;
+        this.serviceNameTo = serviceNameTo;
+        this.requestCodec = requestCodec;
+        this.responseCodec = responseCodec;
+        this.ratePerSecond = Integer.getInteger(PROP_RATE_PER_SECOND, 0);
+        this.senderThreads = Math.max(1, Integer.getInteger(PROP_SENDER_THREADS, 10));
+        this.durationSeconds = Integer.getInteger(PROP_DURATION_SECONDS, 60);
+    }
+
+    void start() {
+        System.out.println("Tweedle benchmark to " + serviceNameTo + ": ratePerSecond=" + ratePerSecond
+                + " senderThreads=" + senderThreads + " durationSeconds=" + durationSeconds);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * senderThreads / ratePerSecond;
+        for (int ix = 0; ix < senderThreads; ix++)
+            new SendThread(intervalNanos).start();
+        Timer timer = new Timer(true);
+        timer.schedule(new PrintProgressTask(), 1000, 1000);
+        timer.schedule(new StopTask(timer), TimeUnit.SECONDS.toMillis(durationSeconds));
+    }
+
+    byte[] createResponse(byte[] data) {
+        ModelRequest request = requestCodec.decode(data);
+        ModelResponse response = new ModelResponse();
+        response.counter = request.counter;
+        response.sendNanos = request.sendNanos;
+        return responseCodec.encode(response);
+    }
+
+    private class SendThread extends Thread {
+        private final long intervalNanos;
+
+        public SendThread(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+            setDaemon(true);
+        }
+
+        public void run() {
+            long nextSendNanos = System.nanoTime();
+            while (!stop) {
+                long waitNanos = nextSendNanos - System.nanoTime();
+                if (waitNanos > 0)
+                    LockSupport.parkNanos(waitNanos);
+                else if (waitNanos < -TimeUnit.SECONDS.toNanos(1))
+                    nextSendNanos = System.nanoTime(); // fallen too far behind - don't burst to catch up
+                nextSendNanos += intervalNanos;
+
+                ModelRequest requestModel = new ModelRequest();
+                requestModel.counter = counterGenerator.incrementAndGet();
+                requestModel.sendNanos = System.nanoTime();
+                byte[] data = requestCodec.encode(requestModel);
+
+                ResponseFuture responseFuture = service.sendRequestExpectResponse(serviceNameTo, data);
+                sent.increment();
+                if (responseFuture.getRequestStatus() != RequestStatus.Ok) {
+                    rejected.increment();
+                    continue;
+                }
+                ResponseFuture.Response response = responseFuture.await();
+                if (response.timedOut) {
+                    timedOut.increment();
+                    continue;
+                }
+                ModelResponse modelResponse = response.data == null ? null : responseCodec.decode(response.data);
+                if (modelResponse == null || modelResponse.sendNanos == null) {
+                    badReplies.increment(); // no send time to measure the round trip from
+                    continue;
+                }
+                long rttNanos = System.nanoTime() - modelResponse.sendNanos;
+                intervalRtt.record(rttNanos);
+                totalRtt.record(rttNanos);
+                received.increment();
+            }
+        }
+    }
+
+    private class PrintProgressTask extends TimerTask {
+        private long lastReceived;
+
+        @Override
+        public void run() {
+            long receivedNow = received.sum();
+            LatencyHistogram interval = intervalRtt.snapshotAndReset();
+            System.out.println(serviceNameTo + " responsesPerSecond=" + (receivedNow - lastReceived) + " sent="
+                    + sent.sum() + " timedOut=" + timedOut.sum() + " rejected=" + rejected.sum() + " badReplies="
+                    + badReplies.sum() + " rtt "
+                    + interval.toMicrosString());
+            lastReceived = receivedNow;
+        }
+    }
+
+    private class StopTask extends TimerTask {
+        private final Timer timer;
+
+        private StopTask(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void run() {
+            stop = true;
+            timer.cancel();
+            System.out.println("Tweedle benchmark to " + serviceNameTo + " complete: achievedRatePerSecond="
+                    + (received.sum() / durationSeconds) + " targetRatePerSecond=" + ratePerSecond + " sent="
+                    + sent.sum() + " timedOut=" + timedOut.sum() + " rejected=" + rejected.sum() + " badReplies="
+                    + badReplies.sum() + " rtt "
+                    + totalRtt.toMicrosString());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.tweedle;
+
+import com.noqms.tests.codec.BinaryCodec;
+import com.noqms.tests.codec.Codec;
+import com.noqms.tests.codec.CodecBenchmark;
+import com.noqms.tests.codec.CodecType;
+import com.noqms.tests.codec.Codecs;
+
+public class TweedleCodecs {
+    private static final int LENGTH = BinaryCodec.NULLABLE_INT_BYTES + BinaryCodec.NULLABLE_LONG_BYTES;
+
+    public static Codec<ModelRequest> createRequestCodec(CodecType type) {
+        return Codecs.create(type, ModelRequest.class, () -> BinaryCodec.of(LENGTH, (model, buffer) -> {
+            BinaryCodec.putNullableInt(buffer, model.counter);
+            BinaryCodec.putNullableLong(buffer, model.sendNanos);
+        }, buffer -> {
+            ModelRequest model = new ModelRequest();
+            model.counter = BinaryCodec.getNullableInt(buffer);
+            model.sendNanos = BinaryCodec.getNullableLong(buffer);
+            return model;
+        }));
+    }
+
+    public static Codec<ModelResponse> createResponseCodec(CodecType type) {
+        return Codecs.create(type, ModelResponse.class, () -> BinaryCodec.of(LENGTH, (model, buffer) -> {
+            BinaryCodec.putNullableInt(buffer, model.counter);
+            BinaryCodec.putNullableLong(buffer, model.sendNanos);
+        }, buffer -> {
+            ModelResponse model = new ModelResponse();
+            model.counter = BinaryCodec.getNullableInt(buffer);
+            model.sendNanos = BinaryCodec.getNullableLong(buffer);
+            return model;
+        }));
+    }
+
+    public static CodecBenchmark.Case<ModelRequest> createRequestBenchmarkCase(CodecType type) {
+        ModelRequest model = new ModelRequest();
+        model.counter = 123456;
+        model.sendNanos = System.nanoTime();
+        return new CodecBenchmark.Case<>("tweedle.ModelRequest", type, createRequestCodec(type), model);
+    }
+
+    public static CodecBenchmark.Case<ModelResponse> createResponseBenchmarkCase(CodecType type) {
+        ModelResponse model = new ModelResponse();
+        model.counter = 123456;
+        model.sendNanos = System.nanoTime();
+        return new CodecBenchmark.Case<>("tweedle.ModelResponse", type, createResponseCodec(type), model);
+    }
+}
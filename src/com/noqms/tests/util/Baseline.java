@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Keeps the results of past runs in a local properties file so a new noqms drop can be checked against our own
+// numbers. Entries are keyed by test, parameters (the arguments and every noqms.tests.* property that shapes the
+// workload), JVM version and host, so numbers from another setting, machine or JVM are never compared. Each entry holds the value of every run (fork) so the comparison can account for run to run noise.
+// -Dnoqms.tests.baseline=<file> turns it on, -Dnoqms.tests.baselineMode picks what to do with the new results:
+//   record  - replace the stored results
+//   compare - check against the stored results, recording them if there are none yet (default)
+// A throughput value (see HIGHER_IS_BETTER) regresses when it falls, and a p99 or cost value (see LOWER_IS_BETTER)
+// when it rises, by more than
+// both -Dnoqms.tests.baselineTolerance (default 0.05, a fraction of the baseline) and the 95% confidence interval of
+// the difference. The noise can only be estimated when there are several forks on both sides.
+
+public class Baseline {
+    public static final String PROP_BASELINE = "noqms.tests.baseline";
+    public static final String PROP_BASELINE_MODE = "noqms.tests.baselineMode";
+    public static final String PROP_BASELINE_TOLERANCE = "noqms.tests.baselineTolerance";
+
+    // Name endings, case ignored. Rates are listed one by one since a rate of timeouts, waste or cpu is a cost, and a
+    // value in neither list (e.g. ShedPerSecond, which is good or bad depending on the load) is not compared.
+    private static final String[] HIGHER_IS_BETTER = {"RequestsPerSecond", "MessagesPerSecond",
+            "MessagesPerSecondPerThread", "MBPerSecond", "GoodputPerSecond", "AnsweredPerSecond", "HopsPerSecond",
+            "ProbesPerSecond"};
+    private static final String[] LOWER_IS_BETTER = {"P99Micros", "TimedOutPerSecond", "WastedPerSecond",
+            "CpuMillisPerSecond"};
+    // Properties that say how to run or judge the benchmark rather than what it runs.
+    private static final Set<String> NOT_KEYED = Set.of(PROP_BASELINE, PROP_BASELINE_MODE, PROP_BASELINE_TOLERANCE,
+            ForkRunner.PROP_FORKS, ForkRunner.PROP_FORK_INDEX);
+
+    public static boolean isRequested() {
+        return System.getProperty(PROP_BASELINE) != null;
+    }
+
+    // Returns false when there are no results or compared results regress against the baseline.
+    public static boolean apply(Class<?> mainClass, String[] args, List<BenchmarkResult> results) throws IOException {
+        if (results.isEmpty()) {
+            System.out.println("baseline FAILED, no results");
+            return false;
+        }
+        Path file = Paths.get(System.getProperty(PROP_BASELINE));
+        String mode = System.getProperty(PROP_BASELINE_MODE, "compare");
+        if (!mode.equals("record") && !mode.equals("compare"))
+            throw new IllegalArgumentException("Unknown " + PROP_BASELINE_MODE + ": " + mode);
+
+        Properties baseline = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                baseline.load(reader);
+            }
+        }
+        String key = getKey(mainClass, args);
+        System.out.println("baseline " + key);
+        boolean stored = baseline.stringPropertyNames().stream().anyMatch(name -> name.startsWith(key + ";"));
+        if (mode.equals("compare") && stored)
+            return compare(baseline, key, results);
+
+        baseline.stringPropertyNames().stream().filter(name -> name.startsWith(key + ";"))
+                .forEach(baseline::remove);
+        for (Map.Entry<String, Double> entry : results.get(0).getValues().entrySet())
+            baseline.setProperty(key + ";" + entry.getKey(), join(getSeries(results, entry.getKey())));
+        if (file.toAbsolutePath().getParent() != null)
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            baseline.store(writer, "noqms tests baseline");
+        }
+        System.out.println("baseline recorded runs=" + results.size() + " file=" + file);
+        return true;
+    }
+
+    private static boolean compare(Properties baseline, String key, List<BenchmarkResult> results) {
+        double tolerance = Double.parseDouble(System.getProperty(PROP_BASELINE_TOLERANCE, "0.05"));
+        boolean passed = true;
+        for (String name : results.get(0).getValues().keySet()) {
+            boolean higherIsBetter = endsWithAny(name, HIGHER_IS_BETTER);
+            if (!higherIsBetter && !endsWithAny(name, LOWER_IS_BETTER))
+                continue;
+            String stored = baseline.getProperty(key + ";" + name);
+            if (stored == null) {
+                System.out.println("baseline value=" + name + " not in baseline");
+                continue;
+            }
+            double[] before = split(stored);
+            double[] after = getSeries(results, name);
+            double beforeMean = Statistics.mean(before);
+            double afterMean = Statistics.mean(after);
+            double worse = higherIsBetter ? beforeMean - afterMean : afterMean - beforeMean;
+            double threshold = Math.max(tolerance * Math.abs(beforeMean), Statistics.differenceConfidence95(before,
+                    after));
+            boolean regressed = worse > threshold;
+            passed &= !regressed;
+            double changePercent = beforeMean == 0 ? 0 : 100 * (afterMean - beforeMean) / beforeMean;
+            System.out.println(String.format("baseline value=%s before=%.1f after=%.1f change=%+.1f%% limit=%.1f %s",
+                    name, beforeMean, afterMean, changePercent, threshold, regressed ? "REGRESSION" : "ok"));
+        }
+        System.out.println("baseline " + (passed ? "passed" : "FAILED"));
+        return passed;
+    }
+
+    private static boolean endsWithAny(String name, String[] endings) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String ending : endings)
+            if (lowerName.endsWith(ending.toLowerCase(Locale.ROOT)))
+                return true;
+        return false;
+    }
+
+    private static String getKey(Class<?> mainClass, String[] args) {
+        return mainClass.getName() + ";args=" + String.join(",", args) + ";props=" + getTestProperties() + ";java="
+                + System.getProperty("java.vm.name") + " " + System.getProperty("java.runtime.version") + ";host="
+                + getHostFingerprint();
+    }
+
+    private static String getTestProperties() {
+        Set<String> names = new TreeSet<>();
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith("noqms.tests.") && !NOT_KEYED.contains(name))
+                names.add(name);
+        StringBuilder builder = new StringBuilder();
+        for (String name : names)
+            builder.append(builder.length() == 0 ? "" : ",").append(name.substring("noqms.tests.".length()))
+                    .append('=').append(System.getProperty(name));
+        return builder.toString();
+    }
+
+    private static String getHostFingerprint() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            hostName = "unknown";
+        }
+        return hostName + "/" + System.getProperty("os.name") + "/" + System.getProperty("os.arch") + "/"
+                + Runtime.getRuntime().availableProcessors() + "cpus/"
+                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "MBheap";
+    }
+
+    private static double[] getSeries(List<BenchmarkResult> results, String name) {
+        return results.stream().filter(result -> result.getValues().containsKey(name))
+                .mapToDouble(result -> result.getValues().get(name)).toArray();
+    }
+
+    private static String join(double[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (double value : values)
+            builder.append(builder.length() == 0 ? "" : ",").append(value);
+        return builder.toString();
+    }
+
+    private static double[] split(String values) {
+        String[] parts = values.split(",");
+        double[] series = new double[parts.length];
+        for (int ix = 0; ix < parts.length; ix++)
+            series[ix] = Double.parseDouble(parts[ix].trim());
+        return series;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Machine readable outcome of one benchmark run, printed as a single line starting with "result " so that a parent
+// process (see ForkRunner) can pick it out of the rest of the output.
+
+public class BenchmarkResult {
+    public static final String PREFIX = "result ";
+
+    private final Map<String, Double> values = new LinkedHashMap<>();
+
+    public BenchmarkResult put(String name, double value) {
+        values.put(name, value);
+        return this;
+    }
+
+    public BenchmarkResult putLatency(String prefix, LatencyHistogram latency) {
+        put(prefix + "P50Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(50)));
+        put(prefix + "P90Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(90)));
+        put(prefix + "P99Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99)));
+        put(prefix + "P999Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99.9)));
+        put(prefix + "MaxMicros", TimeUnit.NANOSECONDS.toMicros(latency.getMaxNanos()));
+        return this;
+    }
+
+    public Map<String, Double> getValues() {
+        return values;
+    }
+
+    public void print() {
+        System.out.println(toString());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(PREFIX);
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            double value = entry.getValue();
+            builder.append(entry.getKey()).append('=');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15)
+                builder.append((long)value);
+            else
+                builder.append(value);
+            builder.append(' ');
+        }
+        return builder.toString().trim();
+    }
+
+    public static boolean isResult(String line) {
+        return line.startsWith(PREFIX);
+    }
+
+    public static BenchmarkResult parse(String line) {
+        BenchmarkResult result = new BenchmarkResult();
+        for (String pair : line.substring(PREFIX.length()).trim().split("\\s+")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                result.put(pair.substring(0, equals), Double.parseDouble(pair.substring(equals + 1)));
+        }
+        return result;
+    }
+}
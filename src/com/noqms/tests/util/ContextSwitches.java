@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Context switches of the live threads of this process, from /proc/self/task/<tid>/status on Linux.
+// Voluntary switches are a thread blocking (waiting for work, a lock or I/O), involuntary ones the scheduler taking
+// the cpu away from a runnable thread, which goes up when there are more runnable threads than cores.
+// Threads that have ended are no longer counted, so take the difference over a window in which the threads live.
+
+public class ContextSwitches {
+    private static final Path TASKS = Paths.get("/proc/self/task");
+
+    public final long voluntary;
+    public final long involuntary;
+
+    private ContextSwitches(long voluntary, long involuntary) {
+        this.voluntary = voluntary;
+        this.involuntary = involuntary;
+    }
+
+    public static boolean isAvailable() {
+        return Files.isDirectory(TASKS);
+    }
+
+    // Returns zeros when not available.
+    public static ContextSwitches read() {
+        long voluntary = 0;
+        long involuntary = 0;
+        if (isAvailable()) {
+            try (DirectoryStream<Path> tasks = Files.newDirectoryStream(TASKS)) {
+                for (Path task : tasks) {
+                    try {
+                        for (String line : Files.readAllLines(task.resolve("status"))) {
+                            if (line.startsWith("voluntary_ctxt_switches:"))
+                                voluntary += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                            else if (line.startsWith("nonvoluntary_ctxt_switches:"))
+                                involuntary += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                        }
+                    } catch (IOException ex) {
+                        // the thread ended while listing
+                    }
+                }
+            } catch (IOException ex) {
+            }
+        }
+        return new ContextSwitches(voluntary, involuntary);
+    }
+
+    public ContextSwitches minus(ContextSwitches start) {
+        return new ContextSwitches(voluntary - start.voluntary, involuntary - start.involuntary);
+    }
+}
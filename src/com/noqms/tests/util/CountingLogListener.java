@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.noqms.LogListener;
+
+// A LogListener for running past the point of overload. Warnings are classified by their text and counted in
+// LongAdders, so the noqms thread that logs never waits on a lock; only the first few of each kind are printed since
+// printing serializes on the stream. Once a second the counts are turned into rates, and the test is ended when the
+// warnings in a second exceed -Dnoqms.tests.abortWarningsPerSecond (default 1000) or the errors exceed
+// -Dnoqms.tests.abortErrors (default 0, so the first error still ends the test).
+// The classification goes by phrases in the text since noqms reports warnings as plain strings, so the phrases are
+// kept specific: a bare "full" or "exceeds" would also match e.g. a full name or a timeout that exceeds its limit.
+// close() stops the once a second ticker, and with it the rate check; the counts keep counting.
+
+public class CountingLogListener implements LogListener {
+    public static final String PROP_ABORT_WARNINGS_PER_SECOND = "noqms.tests.abortWarningsPerSecond";
+    public static final String PROP_ABORT_ERRORS = "noqms.tests.abortErrors";
+    private static final int PRINTED_PER_KIND = 10;
+
+    public enum Kind {
+        TIMEOUT("timed out", "timeout"),
+        UNRESPONSIVE("not responsive", "unresponsive"),
+        OVERSIZE("too large", "too big", "exceeds max", "exceeds the max"),
+        OVERLOAD("queue full", "is full", "overflow", "dropped", "rejected", "refused"),
+        OTHER,
+        ERROR;
+
+        private final String[] phrases;
+
+        private Kind(String... phrases) {
+            this.phrases = phrases;
+        }
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        private static Kind classifyWarning(String text) {
+            String lowerText = text == null ? "" : text.toLowerCase(Locale.ROOT);
+            for (Kind kind : KINDS)
+                for (String phrase : kind.phrases)
+                    if (lowerText.contains(phrase))
+                        return kind;
+            return OTHER;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final int abortWarningsPerSecond;
+    private final int abortErrors = Integer.getInteger(PROP_ABORT_ERRORS, 0);
+    private final LongAdder[] counts = new LongAdder[KINDS.length];
+    private final AtomicInteger[] printed = new AtomicInteger[KINDS.length];
+    private volatile long[] lastSecond = new long[KINDS.length];
+    private final Thread ticker;
+
+    public CountingLogListener() {
+        this(1000);
+    }
+
+    // For tests that cause warnings on purpose, e.g. timeouts under overload; the property still wins.
+    public CountingLogListener(int defaultAbortWarningsPerSecond) {
+        abortWarningsPerSecond = Integer.getInteger(PROP_ABORT_WARNINGS_PER_SECOND, defaultAbortWarningsPerSecond);
+        for (int ix = 0; ix < KINDS.length; ix++) {
+            counts[ix] = new LongAdder();
+            printed[ix] = new AtomicInteger();
+        }
+        ticker = new Thread(this::tick, "CountingLogListener");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public void debug(String text) {
+        System.out.println(text);
+    }
+
+    @Override
+    public void info(String text) {
+        System.out.println(text);
+    }
+
+    @Override
+    public void warn(String text) {
+        Kind kind = Kind.classifyWarning(text);
+        counts[kind.ordinal()].increment();
+        print(kind, text);
+    }
+
+    @Override
+    public void error(String text, Throwable th) {
+        counts[Kind.ERROR.ordinal()].increment();
+        print(Kind.ERROR, text);
+        if (getCount(Kind.ERROR) > abortErrors)
+            abort("error count is over " + PROP_ABORT_ERRORS + "=" + abortErrors);
+    }
+
+    private void print(Kind kind, String text) {
+        AtomicInteger kindPrinted = printed[kind.ordinal()];
+        if (kindPrinted.get() >= PRINTED_PER_KIND)
+            return;
+        int number = kindPrinted.incrementAndGet();
+        if (number < PRINTED_PER_KIND)
+            System.err.println(text);
+        else if (number == PRINTED_PER_KIND)
+            System.err.println(text + " (further " + kind.getName() + " warnings are only counted)");
+    }
+
+    public void close() {
+        ticker.interrupt();
+    }
+
+    public long getCount(Kind kind) {
+        return counts[kind.ordinal()].sum();
+    }
+
+    public long getWarnings() {
+        long warnings = 0;
+        for (Kind kind : KINDS)
+            if (kind != Kind.ERROR)
+                warnings += getCount(kind);
+        return warnings;
+    }
+
+    // Counts in the last whole second, for printing next to throughput.
+    public String getLastSecondString() {
+        return "logEventsPerSecond " + format(lastSecond);
+    }
+
+    @Override
+    public String toString() {
+        long[] totals = new long[KINDS.length];
+        for (int ix = 0; ix < KINDS.length; ix++)
+            totals[ix] = counts[ix].sum();
+        return "logEvents " + format(totals);
+    }
+
+    private static String format(long[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (int ix = 0; ix < KINDS.length; ix++)
+            builder.append(ix == 0 ? "" : " ").append(KINDS[ix].getName()).append('=').append(values[ix]);
+        return builder.toString();
+    }
+
+    private void tick() {
+        long[] lastTotals = new long[KINDS.length];
+        long nextNanos = System.nanoTime();
+        while (true) {
+            nextNanos += TimeUnit.SECONDS.toNanos(1);
+            long sleepNanos;
+            while ((sleepNanos = nextNanos - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            long[] second = new long[KINDS.length];
+            long warnings = 0;
+            for (int ix = 0; ix < KINDS.length; ix++) {
+                long total = counts[ix].sum();
+                second[ix] = total - lastTotals[ix];
+                lastTotals[ix] = total;
+                if (KINDS[ix] != Kind.ERROR)
+                    warnings += second[ix];
+            }
+            lastSecond = second;
+            if (warnings > abortWarningsPerSecond)
+                abort(warnings + " warnings in a second is over " + PROP_ABORT_WARNINGS_PER_SECOND + "="
+                        + abortWarningsPerSecond);
+        }
+    }
+
+    private void abort(String reason) {
+        System.err.println("Ending the test: " + reason + " - " + this);
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException ex) {
+        }
+        System.exit(-1); // end the test
+    }
+}
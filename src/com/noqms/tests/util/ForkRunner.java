@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs a benchmark main several times, each in a fresh JVM, and reports the mean and 95% confidence interval of every
+// value in the forks' result lines. Forks run one after another so they don't compete for the machine.
+// A Run_ main opts in by calling forkIfRequested first; -Dnoqms.tests.forks=N then turns the run into N forks.
+// The child JVMs get the parent's JVM options. A child is stopped once it has printed its result line,
+// since the services it started keep the JVM alive.
+// With -Dnoqms.tests.baseline the results also go through Baseline, even for a single fork, and the process exits
+// with status 1 when they regress.
+
+public class ForkRunner {
+    public static final String PROP_FORKS = "noqms.tests.forks";
+    public static final String PROP_FORK_INDEX = "noqms.tests.forkIndex";
+
+    // Returns true when the forks have been run here and the caller should do nothing more.
+    public static boolean forkIfRequested(Class<?> mainClass, String[] args) {
+        int forks = Integer.getInteger(PROP_FORKS, 1);
+        if ((forks <= 1 && !Baseline.isRequested()) || System.getProperty(PROP_FORK_INDEX) != null)
+            return false;
+        boolean passed = true;
+        try {
+            List<BenchmarkResult> results = run(mainClass, args, Math.max(1, forks));
+            printSummary(mainClass.getSimpleName(), results);
+            if (Baseline.isRequested())
+                passed = Baseline.apply(mainClass, args, results);
+        } catch (Exception ex) {
+            System.err.println("Forking " + mainClass.getName() + " failed: " + ex.getMessage());
+            passed = !Baseline.isRequested();
+        }
+        if (!passed)
+            System.exit(1);
+        return true;
+    }
+
+    public static List<BenchmarkResult> run(Class<?> mainClass, String[] args, int forks) throws Exception {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (int fork = 1; fork <= forks; fork++) {
+            BenchmarkResult result = runFork(mainClass, args, fork, new ArrayList<>());
+            if (result == null)
+                System.err.println("fork#" + fork + " ended without a result");
+            else
+                results.add(result);
+        }
+        return results;
+    }
+
+    // Runs the main once in a fresh JVM with the extra JVM options, returning its result or null.
+    public static BenchmarkResult runFork(Class<?> mainClass, String[] args, int fork, List<String> jvmOptions)
+            throws Exception {
+        return runFork(mainClass, args, fork, new ArrayList<>(), jvmOptions);
+    }
+
+    // The launcher goes in front of the java command, e.g. taskset to pin the fork to some cpus.
+    public static BenchmarkResult runFork(Class<?> mainClass, String[] args, int fork, List<String> launcher,
+            List<String> jvmOptions) throws Exception {
+        List<String> command = new ArrayList<>(launcher);
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (!option.startsWith("-D" + PROP_FORKS + "=") && !option.startsWith("-Djdk.module.")
+                    && !option.startsWith("-agentlib:jdwp"))
+                command.add(option);
+        command.addAll(jvmOptions);
+        command.add("-D" + PROP_FORK_INDEX + "=" + fork);
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null && mainClass.getModule().isNamed()) {
+            command.add("-p");
+            command.add(modulePath);
+            command.add("-m");
+            command.add(mainClass.getModule().getName() + "/" + mainClass.getName());
+        } else {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+        }
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BenchmarkResult result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (result == null && (line = reader.readLine()) != null) {
+                System.out.println("fork#" + fork + " " + line);
+                if (BenchmarkResult.isResult(line))
+                    result = BenchmarkResult.parse(line);
+            }
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+        return result;
+    }
+
+    public static void printSummary(String name, List<BenchmarkResult> results) {
+        // a value only some forks reported is summarized over those forks, not padded with zeros
+        Map<String, List<Double>> series = new LinkedHashMap<>();
+        for (BenchmarkResult result : results)
+            for (Map.Entry<String, Double> entry : result.getValues().entrySet())
+                series.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry.getValue());
+        System.out.println(name + " forks=" + results.size());
+        for (Map.Entry<String, List<Double>> entry : series.entrySet()) {
+            double[] values = entry.getValue().stream().mapToDouble(Double::doubleValue).toArray();
+            double mean = Statistics.mean(values);
+            double confidence = Statistics.confidence95(values);
+            System.out.println(String.format("  %s mean=%.1f ci95=+-%.1f (+-%.1f%%) min=%.1f max=%.1f", entry.getKey(),
+                    mean, confidence, mean == 0 ? 0 : 100 * confidence / mean, Statistics.min(values),
+                    Statistics.max(values)) + (values.length < results.size() ? " forks=" + values.length : ""));
+        }
+    }
+}
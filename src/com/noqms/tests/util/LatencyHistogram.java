@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// Lock-free log-linear histogram of nanosecond latencies. Each power of two is split into 32 linear sub-buckets,
+// so a reported percentile is within about 3% of the true value. Recording is a single atomic increment
+// and never allocates, which keeps it cheap enough for the hot path of any test.
+
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucketIndex(nanos));
+        maxNanos.accumulate(nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            long count = other.counts.get(ix);
+            if (count != 0)
+                counts.addAndGet(ix, count);
+        }
+        maxNanos.accumulate(other.maxNanos.get());
+    }
+
+    public void reset() {
+        for (int ix = 0; ix < BUCKETS; ix++)
+            counts.set(ix, 0);
+        maxNanos.reset();
+    }
+
+    // Moves the current counts into a new histogram and clears this one, for interval reporting.
+    // Values recorded concurrently with the move land in either the interval or the next one, never both.
+    public LatencyHistogram snapshotAndReset() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            long count = counts.getAndSet(ix, 0);
+            if (count != 0)
+                snapshot.counts.set(ix, count);
+        }
+        snapshot.maxNanos.accumulate(maxNanos.getThenReset());
+        return snapshot;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int ix = 0; ix < BUCKETS; ix++)
+            count += counts.get(ix);
+        return count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    // Returns the upper bound of the bucket holding the given percentile (0..100), or 0 when empty.
+    public long getPercentileNanos(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            seen += counts.get(ix);
+            if (seen >= rank)
+                return Math.min(bucketUpperNanos(ix), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    public double getMeanNanos() {
+        long count = 0;
+        double sum = 0;
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            long bucketCount = counts.get(ix);
+            if (bucketCount != 0) {
+                count += bucketCount;
+                sum += bucketCount * (double)bucketMidNanos(ix);
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public String toMicrosString() {
+        return "p50=" + micros(getPercentileNanos(50)) + " p90=" + micros(getPercentileNanos(90)) + " p99="
+                + micros(getPercentileNanos(99)) + " p999=" + micros(getPercentileNanos(99.9)) + " max="
+                + micros(getMaxNanos()) + " (micros)";
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long bucketLowerNanos(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long)((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+    }
+
+    private static long bucketUpperNanos(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return bucketLowerNanos(index) + (1L << shift) - 1;
+    }
+
+    private static long bucketMidNanos(int index) {
+        return bucketLowerNanos(index) + (bucketUpperNanos(index) - bucketLowerNanos(index)) / 2;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.noqms.MicroService;
+import com.noqms.RequestStatus;
+import com.noqms.ResponseFuture;
+
+// Sends requests to one service on schedule until stopped, catching up each millisecond, independent of how fast the
+// service answers. Every accepted request's response goes to the ResponseAwaiter; refused requests are only counted.
+
+public class OpenLoopSender extends Thread {
+    private final MicroService from;
+    private final String serviceNameTo;
+    private final double requestsPerSecond;
+    private final Supplier<byte[]> data;
+    private final ResponseAwaiter awaiter;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private volatile boolean stop;
+
+    // data is called on the sending thread for every request.
+    public OpenLoopSender(MicroService from, String serviceNameTo, double requestsPerSecond, Supplier<byte[]> data,
+            ResponseAwaiter awaiter) {
+        super("OpenLoopSender-" + serviceNameTo);
+        this.from = from;
+        this.serviceNameTo = serviceNameTo;
+        this.requestsPerSecond = requestsPerSecond;
+        this.data = data;
+        this.awaiter = awaiter;
+        setDaemon(true);
+    }
+
+    public void run() {
+        long startNanos = System.nanoTime();
+        long sends = 0;
+        while (!stop) {
+            long due = (long)((System.nanoTime() - startNanos) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            for (; sends < due; sends++) {
+                byte[] request = data.get();
+                long sentNanos = System.nanoTime();
+                ResponseFuture responseFuture = from.sendRequestExpectResponse(serviceNameTo, request);
+                sent.increment();
+                if (responseFuture.getRequestStatus() == RequestStatus.Ok)
+                    awaiter.add(responseFuture, sentNanos);
+                else
+                    refused.increment();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    public void stopSending() {
+        stop = true;
+    }
+
+    // Every request sent, including the refused ones.
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getRefused() {
+        return refused.sum();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Pre-generates message payloads with a chosen shape so the send loop never builds data on the hot path.
+// Names: zeros, random, text, json, compressible:<ratio>
+// compressible:0.75 repeats earlier 64 byte blocks for 75% of the payload and fills the rest randomly, so a
+// general purpose compressor removes about three quarters of the bytes.
+
+public class PayloadGenerator {
+    private static final String[] WORDS = {"the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as",
+            "was", "with", "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which", "but",
+            "have", "an", "had", "they", "you", "were", "their", "one", "all", "we", "can", "her", "has", "there",
+            "been", "if", "more", "when", "will", "would", "who", "so", "no", "service", "request", "response",
+            "message", "timeout", "queue", "thread", "latency", "throughput", "payload", "customer", "account",
+            "order", "invoice", "shipment", "inventory", "warehouse", "price", "quantity", "status", "pending"};
+    private static final int BLOCK = 64;
+
+    private final String name;
+    private final Type type;
+    private final double compressibility;
+
+    private enum Type {
+        ZEROS, RANDOM, TEXT, JSON, COMPRESSIBLE
+    }
+
+    private PayloadGenerator(String name, Type type, double compressibility) {
+        this.name = name;
+        this.type = type;
+        this.compressibility = compressibility;
+    }
+
+    public static PayloadGenerator fromName(String name) {
+        String lowerName = name.toLowerCase();
+        if (lowerName.startsWith("compressible:")) {
+            double ratio = Double.parseDouble(lowerName.substring("compressible:".length()));
+            if (ratio < 0 || ratio > 1)
+                throw new IllegalArgumentException("Compressibility must be between 0 and 1: " + ratio);
+            return new PayloadGenerator(lowerName, Type.COMPRESSIBLE, ratio);
+        }
+        for (Type type : Type.values())
+            if (type != Type.COMPRESSIBLE && type.name().equalsIgnoreCase(name))
+                return new PayloadGenerator(lowerName, type, 0);
+        throw new IllegalArgumentException("Unknown payload: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[][] generate(int count, int length, long seed) {
+        Random random = new Random(seed);
+        byte[][] payloads = new byte[count][];
+        for (int ix = 0; ix < count; ix++)
+            payloads[ix] = generate(length, random);
+        return payloads;
+    }
+
+    private byte[] generate(int length, Random random) {
+        switch (type) {
+        case RANDOM:
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            return data;
+        case TEXT:
+            return fill(length, random, false);
+        case JSON:
+            return fill(length, random, true);
+        case COMPRESSIBLE:
+            return compressible(length, random);
+        default:
+            return new byte[length];
+        }
+    }
+
+    private static byte[] fill(int length, Random random, boolean json) {
+        StringBuilder builder = new StringBuilder(length + 256);
+        if (json)
+            builder.append('[');
+        while (builder.length() < length) {
+            if (json)
+                appendRecord(builder, random);
+            else
+                appendSentence(builder, random);
+        }
+        byte[] data = new byte[length];
+        byte[] text = builder.toString().getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(text, 0, data, 0, length);
+        return data;
+    }
+
+    private static void appendSentence(StringBuilder builder, Random random) {
+        int words = 5 + random.nextInt(15);
+        for (int ix = 0; ix < words; ix++) {
+            String word = word(random);
+            builder.append(ix == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            builder.append(ix == words - 1 ? ". " : " ");
+        }
+        if (random.nextInt(8) == 0)
+            builder.append('\n');
+    }
+
+    private static void appendRecord(StringBuilder builder, Random random) {
+        builder.append("{\"id\":").append(random.nextInt(10000000));
+        builder.append(",\"name\":\"").append(word(random)).append(' ').append(word(random)).append('"');
+        builder.append(",\"status\":\"").append(word(random)).append('"');
+        builder.append(",\"active\":").append(random.nextBoolean());
+        builder.append(",\"amount\":").append(random.nextInt(100000) / 100.0);
+        builder.append(",\"tags\":[\"").append(word(random)).append("\",\"").append(word(random)).append("\"]},");
+    }
+
+    // Favours the front of the word list, roughly like natural text.
+    private static String word(Random random) {
+        double skew = random.nextDouble();
+        return WORDS[(int)(skew * skew * WORDS.length)];
+    }
+
+    private byte[] compressible(int length, Random random) {
+        byte[] data = new byte[length];
+        byte[] block = new byte[BLOCK];
+        for (int position = 0; position < length; position += BLOCK) {
+            int blockLength = Math.min(BLOCK, length - position);
+            if (position >= BLOCK && random.nextDouble() < compressibility) {
+                int blocksBefore = Math.min(position / BLOCK, 512);
+                int from = position - BLOCK * (1 + random.nextInt(blocksBefore));
+                System.arraycopy(data, from, data, position, blockLength);
+            } else {
+                random.nextBytes(block);
+                System.arraycopy(block, 0, data, position, blockLength);
+            }
+        }
+        return data;
+    }
+}
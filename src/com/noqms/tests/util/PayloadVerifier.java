@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+// Checks that each echoed response is the request it answers, cheaply enough to leave on during throughput runs.
+// -Dnoqms.tests.verify=true turns it on in tests that echo their requests (LoadTest).
+// The first HEADER_BYTES of a stamped payload are the run id, the sequence number and a CRC32C of everything else.
+// CRC32C is an intrinsic on current JVMs, so the check costs far less than the copy the stamp needs.
+// A response is
+//   corrupted  - too short or its checksum doesn't match
+//   misrouted  - from another run (another test in the same group) or the answer to a different request
+//   duplicate  - a sequence number already verified, among the last SEEN sequences
+// The cpu time of stamping and verifying is counted so the overhead can be reported next to the throughput.
+
+public class PayloadVerifier {
+    public static final String PROP_VERIFY = "noqms.tests.verify";
+    public static final int HEADER_BYTES = 16;
+    private static final int SEEN = 1 << 16;
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    public enum Outcome {
+        OK, CORRUPTED, MISROUTED, DUPLICATE
+    }
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final int runId = ThreadLocalRandom.current().nextInt();
+    private final AtomicLong sequences = new AtomicLong();
+    private final AtomicLongArray seen = new AtomicLongArray(SEEN);
+    private final LongAdder[] counts = new LongAdder[OUTCOMES.length];
+    private final LongAdder cpuNanos = new LongAdder();
+
+    public PayloadVerifier() {
+        for (int ix = 0; ix < SEEN; ix++)
+            seen.set(ix, -1);
+        for (int ix = 0; ix < OUTCOMES.length; ix++)
+            counts[ix] = new LongAdder();
+    }
+
+    public static boolean isRequested() {
+        return Boolean.getBoolean(PROP_VERIFY);
+    }
+
+    public long nextSequence() {
+        return sequences.getAndIncrement();
+    }
+
+    // Returns a copy of the payload with the header written over its first HEADER_BYTES.
+    public byte[] stamp(byte[] payload, long sequence) {
+        if (payload.length < HEADER_BYTES)
+            throw new IllegalArgumentException("Payloads must be at least " + HEADER_BYTES + " bytes to verify");
+        long startCpuNanos = threadBean.getCurrentThreadCpuTime();
+        byte[] data = payload.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putInt(0, runId);
+        buffer.putLong(4, sequence);
+        buffer.putInt(12, checksum(data));
+        cpuNanos.add(threadBean.getCurrentThreadCpuTime() - startCpuNanos);
+        return data;
+    }
+
+    public Outcome verify(byte[] data, long sequence) {
+        long startCpuNanos = threadBean.getCurrentThreadCpuTime();
+        Outcome outcome = check(data, sequence);
+        counts[outcome.ordinal()].increment();
+        cpuNanos.add(threadBean.getCurrentThreadCpuTime() - startCpuNanos);
+        return outcome;
+    }
+
+    private Outcome check(byte[] data, long sequence) {
+        if (data == null || data.length < HEADER_BYTES)
+            return Outcome.CORRUPTED;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(12) != checksum(data))
+            return Outcome.CORRUPTED;
+        if (buffer.getInt(0) != runId)
+            return Outcome.MISROUTED;
+        long returnedSequence = buffer.getLong(4);
+        if (seen.getAndSet((int)(returnedSequence & (SEEN - 1)), returnedSequence) == returnedSequence)
+            return Outcome.DUPLICATE;
+        return returnedSequence == sequence ? Outcome.OK : Outcome.MISROUTED;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, 12);
+        crc.update(data, HEADER_BYTES, data.length - HEADER_BYTES);
+        return (int)crc.getValue();
+    }
+
+    public long getCount(Outcome outcome) {
+        return counts[outcome.ordinal()].sum();
+    }
+
+    public long getFailures() {
+        return getCount(Outcome.CORRUPTED) + getCount(Outcome.MISROUTED) + getCount(Outcome.DUPLICATE);
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("verify");
+        for (Outcome outcome : OUTCOMES)
+            builder.append(' ').append(outcome.name().toLowerCase()).append('=').append(getCount(outcome));
+        return builder.append(" cpuMillis=").append(cpuNanos.sum() / 1000000).toString();
+    }
+}
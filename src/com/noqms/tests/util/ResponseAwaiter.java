@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.noqms.tests.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.noqms.ResponseFuture;
+
+// Times responses when they arrive. ResponseFuture only offers a blocking await, so awaiting responses in send order
+// on a few threads would time every response behind a slow one as late as that one. Instead each outstanding response
+// gets its own awaiting thread from a pool that grows up to -Dnoqms.tests.maxAwaitThreads (default 1000), and the
+// latency runs from the send to the return of its await.
+// Beyond that many outstanding responses the rest wait in a queue for a thread. A queued response whose await then
+// returns at once had probably arrived already, so it is counted as late: its latency is an upper bound.
+
+public class ResponseAwaiter {
+    public static final String PROP_MAX_AWAIT_THREADS = "noqms.tests.maxAwaitThreads";
+    private static final long ALREADY_ARRIVED_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    public interface Handler {
+        // Called on an awaiting thread, concurrently with other responses.
+        void handle(ResponseFuture.Response response, long latencyNanos);
+    }
+
+    private final String name;
+    private final Handler handler;
+    private final int maxThreads = Integer.getInteger(PROP_MAX_AWAIT_THREADS, 1000);
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final AtomicInteger threads = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder late = new LongAdder();
+    private volatile boolean stop;
+
+    // For responses that each bring their own handler.
+    public ResponseAwaiter(String name) {
+        this(name, null);
+    }
+
+    public ResponseAwaiter(String name, Handler handler) {
+        this.name = name;
+        this.handler = handler;
+    }
+
+    // Starts threads ahead of a burst, so that sending it doesn't wait on thread starts.
+    public void prestart(int count) {
+        for (int ix = 0; ix < count && startThread(); ix++)
+            idle.incrementAndGet();
+    }
+
+    public void add(ResponseFuture responseFuture, long sentNanos) {
+        add(responseFuture, sentNanos, handler);
+    }
+
+    public void add(ResponseFuture responseFuture, long sentNanos, Handler handler) {
+        outstanding.incrementAndGet();
+        boolean queued = !reserveIdle() && !startThread();
+        if (queued)
+            backlog.incrementAndGet();
+        pending.add(new Pending(responseFuture, sentNanos, queued, handler));
+    }
+
+    // Waits until every added response has been handled; each await ends by its timeout at the latest.
+    public void awaitAll() {
+        while (outstanding.get() > 0 && !stop)
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getLate() {
+        return late.sum();
+    }
+
+    // The threads end once their current await returns.
+    public void stop() {
+        stop = true;
+    }
+
+    private boolean reserveIdle() {
+        int count;
+        while ((count = idle.get()) > 0)
+            if (idle.compareAndSet(count, count - 1))
+                return true;
+        return false;
+    }
+
+    private boolean startThread() {
+        if (threads.incrementAndGet() > maxThreads) {
+            threads.decrementAndGet();
+            return false;
+        }
+        Thread thread = new Thread(this::await, name + "-await");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void await() {
+        try {
+            while (!stop) {
+                Pending next = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (next == null)
+                    continue;
+                long takenNanos = System.nanoTime();
+                ResponseFuture.Response response = next.responseFuture.await();
+                long nowNanos = System.nanoTime();
+                if (next.queued && nowNanos - takenNanos < ALREADY_ARRIVED_NANOS)
+                    late.increment();
+                next.handler.handle(response, nowNanos - next.sentNanos);
+                outstanding.decrementAndGet();
+                if (!takeBacklog())
+                    idle.incrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+        } finally {
+            threads.decrementAndGet();
+        }
+    }
+
+    // A thread that finishes takes on a queued response before it counts itself idle.
+    private boolean takeBacklog() {
+        int count;
+        while ((count = backlog.get()) > 0)
+            if (backlog.compareAndSet(count, count - 1))
+                return true;
+        return false;
+    }
+
+    private static class Pending {
+        private final ResponseFuture responseFuture;
+        private final long sentNanos;
+        private final boolean queued;
+        private final Handler handler;
+
+        private Pending(ResponseFuture responseFuture, long sentNanos, boolean queued, Handler handler) {
+            this.responseFuture = responseFuture;
+            this.sentNanos = sentNanos;
+            this.queued = queued;
+            this.handler = handler;
+        }
+    }
+}
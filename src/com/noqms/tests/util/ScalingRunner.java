@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs a benchmark main in fresh JVMs restricted to 1, 2, 4 .. up to all of this machine's cores, to see how far the
+// throughput scales and where it flattens. Each fork gets -XX:ActiveProcessorCount, so the JVM sizes its GC and
+// common pool threads for that many cores, and on Linux is pinned to the first cores this process may use with
+// taskset, so the threads really only get those cores.
+// -Dnoqms.tests.cores=1,2,3,4 picks other core counts, -Dnoqms.tests.forks=N runs each point N times.
+// The value followed is the first *PerSecond value of the result line unless the caller or
+// -Dnoqms.tests.scalingValue names another, and the latency is the first *P99Micros value.
+// Per core efficiency is the value per core relative to the smallest core count, 100% being linear scaling.
+// Scaling is reported as flattened at the first step that gains less than a quarter of the linear increase.
+// A main that offers a fixed rate (-Dnoqms.tests.scalingFixedRate=true) does the same work at every point, so its
+// value is only reported, e.g. processCpuMillisPerSecond to show what that work costs, without efficiency or
+// flattening.
+
+public class ScalingRunner {
+    public static final String PROP_CORES = "noqms.tests.cores";
+    public static final String PROP_SCALING_VALUE = "noqms.tests.scalingValue";
+    public static final String PROP_SCALING_FIXED_RATE = "noqms.tests.scalingFixedRate";
+    private static final double FLAT_STEP_EFFICIENCY = 0.25;
+
+    public static void run(Class<?> mainClass, String[] args) throws Exception {
+        run(mainClass, args, System.getProperty(PROP_SCALING_VALUE), Boolean.getBoolean(PROP_SCALING_FIXED_RATE),
+                new ArrayList<>());
+    }
+
+    // valueName null picks the first *PerSecond value; the JVM options are added to every fork.
+    public static void run(Class<?> mainClass, String[] args, String valueName, boolean fixedRate,
+            List<String> extraJvmOptions) throws Exception {
+        List<Integer> cpus = getAllowedCpus();
+        int available = cpus.isEmpty() ? Runtime.getRuntime().availableProcessors() : cpus.size();
+        boolean pinned = !cpus.isEmpty() && isTasksetAvailable();
+        int forks = Math.max(1, Integer.getInteger(ForkRunner.PROP_FORKS, 1));
+        String name = mainClass.getSimpleName();
+        System.out.println("scaling main=" + name + " availableCores=" + available + " pinned=" + pinned + " forks="
+                + forks + " fixedRate=" + fixedRate);
+
+        List<Integer> coreCounts = new ArrayList<>();
+        List<Map<String, Double>> means = new ArrayList<>();
+        for (int cores : getCoreCounts(available)) {
+            List<String> launcher = new ArrayList<>();
+            if (pinned)
+                launcher.addAll(Arrays.asList("taskset", "-c", toCpuList(cpus.subList(0, cores))));
+            List<String> jvmOptions = new ArrayList<>(extraJvmOptions);
+            jvmOptions.add("-XX:ActiveProcessorCount=" + cores);
+            List<BenchmarkResult> results = new ArrayList<>();
+            for (int fork = 1; fork <= forks; fork++) {
+                BenchmarkResult result = ForkRunner.runFork(mainClass, args, fork, launcher, jvmOptions);
+                if (result == null)
+                    System.err.println("cores=" + cores + " fork#" + fork + " ended without a result");
+                else
+                    results.add(result);
+            }
+            if (results.isEmpty())
+                continue;
+            ForkRunner.printSummary(name + " cores=" + cores, results);
+            coreCounts.add(cores);
+            means.add(getMeans(results));
+        }
+        if (coreCounts.isEmpty()) {
+            System.out.println("scaling main=" + name + " no results");
+            return;
+        }
+
+        String throughputName = valueName != null ? valueName : findName(means.get(0), "PerSecond");
+        String latencyName = findName(means.get(0), "P99Micros");
+        if (throughputName == null || !means.get(0).containsKey(throughputName)) {
+            System.out.println("scaling main=" + name + " no " + (valueName != null ? valueName : "*PerSecond")
+                    + " value to scale");
+            return;
+        }
+        if (fixedRate) {
+            for (int ix = 0; ix < coreCounts.size(); ix++)
+                System.out.println(String.format("scaling main=%s cores=%d %s=%.0f%s", name, coreCounts.get(ix),
+                        throughputName, means.get(ix).getOrDefault(throughputName, 0.0),
+                        formatLatency(latencyName, means.get(ix))));
+            return;
+        }
+        double firstPerCore = means.get(0).get(throughputName) / coreCounts.get(0);
+        Integer flattensAtCores = null;
+        for (int ix = 0; ix < coreCounts.size(); ix++) {
+            int cores = coreCounts.get(ix);
+            double throughput = means.get(ix).getOrDefault(throughputName, 0.0);
+            double efficiency = firstPerCore == 0 ? 0 : throughput / cores / firstPerCore;
+            if (ix > 0 && flattensAtCores == null) {
+                int previousCores = coreCounts.get(ix - 1);
+                double previousThroughput = means.get(ix - 1).getOrDefault(throughputName, 0.0);
+                double gain = previousThroughput == 0 ? 0 : throughput / previousThroughput - 1;
+                double linearGain = cores / (double)previousCores - 1;
+                if (gain < FLAT_STEP_EFFICIENCY * linearGain)
+                    flattensAtCores = cores;
+            }
+            System.out.println(String.format("scaling main=%s cores=%d %s=%.0f perCore=%.0f efficiencyPercent=%.0f%s",
+                    name, cores, throughputName, throughput, throughput / cores, 100 * efficiency,
+                    formatLatency(latencyName, means.get(ix))));
+        }
+        System.out.println("scaling main=" + name + " flattensAtCores="
+                + (flattensAtCores == null ? "none" : String.valueOf(flattensAtCores)));
+    }
+
+    private static String formatLatency(String latencyName, Map<String, Double> values) {
+        return latencyName == null ? "" : String.format(" %s=%.0f", latencyName, values.getOrDefault(latencyName, 0.0));
+    }
+
+    private static Map<String, Double> getMeans(List<BenchmarkResult> results) {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (String valueName : results.get(0).getValues().keySet()) {
+            double[] values = results.stream().filter(result -> result.getValues().containsKey(valueName))
+                    .mapToDouble(result -> result.getValues().get(valueName)).toArray();
+            means.put(valueName, Statistics.mean(values));
+        }
+        return means;
+    }
+
+    private static String findName(Map<String, Double> values, String suffix) {
+        for (String valueName : values.keySet())
+            if (valueName.endsWith(suffix))
+                return valueName;
+        return null;
+    }
+
+    private static List<Integer> getCoreCounts(int available) {
+        List<Integer> coreCounts = new ArrayList<>();
+        String cores = System.getProperty(PROP_CORES);
+        if (cores != null) {
+            for (String count : cores.split(",")) {
+                int coreCount = Integer.parseInt(count.trim());
+                if (coreCount < 1 || coreCount > available)
+                    throw new IllegalArgumentException("Core counts must be between 1 and " + available + ": "
+                            + coreCount);
+                coreCounts.add(coreCount);
+            }
+            return coreCounts;
+        }
+        for (int coreCount = 1; coreCount < available; coreCount *= 2)
+            coreCounts.add(coreCount);
+        coreCounts.add(available);
+        return coreCounts;
+    }
+
+    // The cpus this process may run on, from Cpus_allowed_list in /proc/self/status, empty when not on Linux.
+    private static List<Integer> getAllowedCpus() {
+        List<Integer> cpus = new ArrayList<>();
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status))
+            return cpus;
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (!line.startsWith("Cpus_allowed_list:"))
+                    continue;
+                for (String range : line.substring(line.indexOf(':') + 1).trim().split(",")) {
+                    String[] bounds = range.split("-");
+                    int first = Integer.parseInt(bounds[0]);
+                    int last = bounds.length > 1 ? Integer.parseInt(bounds[1]) : first;
+                    for (int cpu = first; cpu <= last; cpu++)
+                        cpus.add(cpu);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            cpus.clear();
+        }
+        return cpus;
+    }
+
+    private static boolean isTasksetAvailable() {
+        try {
+            Process process = new ProcessBuilder("taskset", "-V").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException | InterruptedException ex) {
+            return false;
+        }
+    }
+
+    private static String toCpuList(List<Integer> cpus) {
+        StringBuilder builder = new StringBuilder();
+        for (int cpu : cpus)
+            builder.append(builder.length() == 0 ? "" : ",").append(cpu);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.Random;
+
+// Message sizes drawn from a chosen distribution, so request and response sizes can be set independently.
+// Names: <bytes>, fixed:<bytes>, uniform:<min>:<max>, lognormal:<median>:<sigma>, bimodal:<small>:<large>:<fraction>
+// lognormal:20000:1 gives a median of 20000 bytes with a long tail (p99 about ten times the median).
+// bimodal:100:100000:0.1 sends 100 bytes nine times out of ten and 100000 bytes otherwise.
+// Every size is clamped to the caller's limit, which is what the service's max message bytes are set to.
+// The same names describe service times in micros for ThreadTuningTest.
+
+public class SizeDistribution {
+    private final String name;
+    private final Type type;
+    private final double first;
+    private final double second;
+    private final double fraction;
+
+    private enum Type {
+        FIXED, UNIFORM, LOGNORMAL, BIMODAL
+    }
+
+    private SizeDistribution(String name, Type type, double first, double second, double fraction) {
+        this.name = name;
+        this.type = type;
+        this.first = first;
+        this.second = second;
+        this.fraction = fraction;
+    }
+
+    public static SizeDistribution fromName(String name) {
+        String[] parts = name.toLowerCase().split(":");
+        try {
+            if (parts.length == 1)
+                return fixed(name, Integer.parseInt(parts[0]));
+            if (parts[0].equals("fixed") && parts.length == 2)
+                return fixed(name, Integer.parseInt(parts[1]));
+            if (parts[0].equals("uniform") && parts.length == 3) {
+                int min = Integer.parseInt(parts[1]);
+                int max = Integer.parseInt(parts[2]);
+                if (min < 0 || max < min)
+                    throw new IllegalArgumentException("Uniform sizes need 0 <= min <= max: " + name);
+                return new SizeDistribution(name, Type.UNIFORM, min, max, 0);
+            }
+            if (parts[0].equals("lognormal") && parts.length == 3) {
+                int median = Integer.parseInt(parts[1]);
+                double sigma = Double.parseDouble(parts[2]);
+                if (median <= 0 || sigma < 0)
+                    throw new IllegalArgumentException("Lognormal sizes need median > 0 and sigma >= 0: " + name);
+                return new SizeDistribution(name, Type.LOGNORMAL, Math.log(median), sigma, 0);
+            }
+            if (parts[0].equals("bimodal") && parts.length == 4) {
+                int small = Integer.parseInt(parts[1]);
+                int large = Integer.parseInt(parts[2]);
+                double largeFraction = Double.parseDouble(parts[3]);
+                if (small < 0 || large < 0 || largeFraction < 0 || largeFraction > 1)
+                    throw new IllegalArgumentException("Bimodal sizes need sizes >= 0 and 0 <= fraction <= 1: "
+                            + name);
+                return new SizeDistribution(name, Type.BIMODAL, small, large, largeFraction);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Bad size distribution: " + name);
+        }
+        throw new IllegalArgumentException("Unknown size distribution: " + name);
+    }
+
+    private static SizeDistribution fixed(String name, int bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Size must not be negative: " + name);
+        return new SizeDistribution(name, Type.FIXED, bytes, bytes, 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int next(Random random, int minBytes, int maxBytes) {
+        double size;
+        switch (type) {
+        case UNIFORM:
+            size = first + random.nextInt((int)(second - first) + 1);
+            break;
+        case LOGNORMAL:
+            size = Math.exp(first + second * random.nextGaussian());
+            break;
+        case BIMODAL:
+            size = random.nextDouble() < fraction ? second : first;
+            break;
+        default:
+            size = first;
+        }
+        return (int)Math.max(minBytes, Math.min(maxBytes, size));
+    }
+}
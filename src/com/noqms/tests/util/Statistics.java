@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+// Summary statistics over repeated runs.
+
+public class Statistics {
+    // two sided 95% Student t for 1..30 degrees of freedom
+    private static final double[] T_95 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060,
+            2.056, 2.052, 2.048, 2.045, 2.042};
+
+    public static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values)
+            sum += value;
+        return values.length == 0 ? 0 : sum / values.length;
+    }
+
+    public static double standardDeviation(double[] values) {
+        if (values.length < 2)
+            return 0;
+        double mean = mean(values);
+        double sumSquares = 0;
+        for (double value : values)
+            sumSquares += (value - mean) * (value - mean);
+        return Math.sqrt(sumSquares / (values.length - 1));
+    }
+
+    // Half width of the 95% confidence interval of the mean.
+    public static double confidence95(double[] values) {
+        if (values.length < 2)
+            return 0;
+        return t95(values.length - 1) * standardDeviation(values) / Math.sqrt(values.length);
+    }
+
+    // Half width of the 95% confidence interval of the difference between the means of two samples (Welch).
+    public static double differenceConfidence95(double[] first, double[] second) {
+        double firstVariance = first.length == 0 ? 0 : Math.pow(standardDeviation(first), 2) / first.length;
+        double secondVariance = second.length == 0 ? 0 : Math.pow(standardDeviation(second), 2) / second.length;
+        double variance = firstVariance + secondVariance;
+        if (variance == 0)
+            return 0;
+        double degreesOfFreedom = variance * variance
+                / ((first.length > 1 ? firstVariance * firstVariance / (first.length - 1) : 0)
+                        + (second.length > 1 ? secondVariance * secondVariance / (second.length - 1) : 0));
+        return t95(Math.max(1, (int)degreesOfFreedom)) * Math.sqrt(variance);
+    }
+
+    // Two sided 95% Student t value.
+    public static double t95(int degreesOfFreedom) {
+        return degreesOfFreedom <= T_95.length ? T_95[degreesOfFreedom - 1] : 1.96;
+    }
+
+    public static double min(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values)
+            min = Math.min(min, value);
+        return min;
+    }
+
+    public static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values)
+            max = Math.max(max, value);
+        return max;
+    }
+}
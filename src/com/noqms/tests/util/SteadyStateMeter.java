@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.noqms.tests.jfr.MeasuredRecording;
+
+// Replaces a fixed run time: samples the completion rate and median latency once a second, waits for both to settle,
+// and only then measures. Warmup covers JIT compilation, class loading and service discovery settling.
+// Steady means the last steadyWindowSeconds samples are all within steadyTolerance of their mean, checked no earlier
+// than warmupMinSeconds. If that never happens within warmupMaxSeconds the measurement starts anyway and the result
+// is flagged as not steady. The median rather than p99 is used to detect settling since a one second p99 is too noisy.
+// Settings come from system properties:
+//   noqms.tests.warmupMinSeconds (10), noqms.tests.warmupMaxSeconds (120), noqms.tests.steadyWindowSeconds (5),
+//   noqms.tests.steadyTolerance (0.1), noqms.tests.measureSeconds (60)
+// The measured window alone can be flight recorded, see MeasuredRecording.
+// With reportLogEvents the per second lines also show the warnings logged in that second.
+
+public class SteadyStateMeter {
+    public static final String PROP_WARMUP_MIN_SECONDS = "noqms.tests.warmupMinSeconds";
+    public static final String PROP_WARMUP_MAX_SECONDS = "noqms.tests.warmupMaxSeconds";
+    public static final String PROP_STEADY_WINDOW_SECONDS = "noqms.tests.steadyWindowSeconds";
+    public static final String PROP_STEADY_TOLERANCE = "noqms.tests.steadyTolerance";
+    public static final String PROP_MEASURE_SECONDS = "noqms.tests.measureSeconds";
+
+    private final String name;
+    private final LongSupplier counter;
+    private final Supplier<LatencyHistogram> intervalLatency;
+    private final int warmupMinSeconds = Integer.getInteger(PROP_WARMUP_MIN_SECONDS, 10);
+    private final int warmupMaxSeconds = Integer.getInteger(PROP_WARMUP_MAX_SECONDS, 120);
+    private final int steadyWindowSeconds = Integer.getInteger(PROP_STEADY_WINDOW_SECONDS, 5);
+    private final double steadyTolerance = Double.parseDouble(System.getProperty(PROP_STEADY_TOLERANCE, "0.1"));
+    private final int measureSeconds = Integer.getInteger(PROP_MEASURE_SECONDS, 60);
+    private Runnable measureStartListener;
+    private CountingLogListener logEvents;
+
+    // For a test with no latency to report.
+    public SteadyStateMeter(String name, LongSupplier counter) {
+        this(name, counter, (Supplier<LatencyHistogram>)null);
+    }
+
+    // The counter is cumulative completions. Latencies are recorded by the test into intervalLatency, which this
+    // meter drains every second.
+    public SteadyStateMeter(String name, LongSupplier counter, LatencyHistogram intervalLatency) {
+        this(name, counter, intervalLatency::snapshotAndReset);
+    }
+
+    // For a test that records latency into several histograms: the supplier drains them all into one, once a second.
+    public SteadyStateMeter(String name, LongSupplier counter, Supplier<LatencyHistogram> intervalLatency) {
+        this.name = name;
+        this.counter = counter;
+        this.intervalLatency = intervalLatency;
+    }
+
+    public void onMeasureStart(Runnable listener) {
+        this.measureStartListener = listener;
+    }
+
+    public void reportLogEvents(CountingLogListener logEvents) {
+        this.logEvents = logEvents;
+    }
+
+    public static class Result {
+        public final double ratePerSecond;
+        public final LatencyHistogram latency;
+        public final int warmupSeconds;
+        public final boolean steady;
+
+        private Result(double ratePerSecond, LatencyHistogram latency, int warmupSeconds, boolean steady) {
+            this.ratePerSecond = ratePerSecond;
+            this.latency = latency;
+            this.warmupSeconds = warmupSeconds;
+            this.steady = steady;
+        }
+    }
+
+    public Result measure() {
+        double[] rates = new double[steadyWindowSeconds];
+        double[] medians = new double[steadyWindowSeconds];
+        long[] latencyCounts = new long[steadyWindowSeconds];
+        long secondNanos = TimeUnit.SECONDS.toNanos(1);
+        long lastNanos = System.nanoTime();
+        long lastCount = counter.getAsLong();
+        int warmupSeconds = 0;
+        boolean steady = false;
+
+        while (warmupSeconds < warmupMaxSeconds && !steady) {
+            sleepUntil(lastNanos + secondNanos);
+            long nowNanos = System.nanoTime();
+            long count = counter.getAsLong();
+            double rate = (count - lastCount) * (double)secondNanos / (nowNanos - lastNanos);
+            LatencyHistogram latency = drainInterval();
+            rates[warmupSeconds % steadyWindowSeconds] = rate;
+            medians[warmupSeconds % steadyWindowSeconds] = latency.getPercentileNanos(50);
+            latencyCounts[warmupSeconds % steadyWindowSeconds] = latency.getCount();
+            warmupSeconds++;
+            lastNanos = nowNanos;
+            lastCount = count;
+            System.out.println(name + " warmup second=" + warmupSeconds + " ratePerSecond=" + (long)rate
+                    + " latency " + latency.toMicrosString() + getLogEventsString());
+            if (warmupSeconds >= Math.max(warmupMinSeconds, steadyWindowSeconds))
+                steady = isSteady(rates) && (isEmpty(latencyCounts) || isSteady(medians));
+        }
+        System.out.println(name + (steady ? " steady after " : " NOT steady after ") + warmupSeconds
+                + " seconds, measuring for " + measureSeconds + " seconds");
+
+        MeasuredRecording recording = MeasuredRecording.startIfRequested(name);
+        if (measureStartListener != null)
+            measureStartListener.run();
+        drainInterval();
+        LatencyHistogram measured = new LatencyHistogram();
+        long startNanos = System.nanoTime();
+        long startCount = counter.getAsLong();
+        for (int second = 1; second <= measureSeconds; second++) {
+            sleepUntil(startNanos + second * secondNanos);
+            LatencyHistogram latency = drainInterval();
+            measured.add(latency);
+            System.out.println(name + " measure second=" + second + " count=" + (counter.getAsLong() - startCount)
+                    + " latency " + latency.toMicrosString() + getLogEventsString());
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / (double)secondNanos;
+        double ratePerSecond = (counter.getAsLong() - startCount) / elapsedSeconds;
+        if (recording != null)
+            recording.stop();
+        return new Result(ratePerSecond, measured, warmupSeconds, steady);
+    }
+
+    private String getLogEventsString() {
+        return logEvents == null ? "" : " " + logEvents.getLastSecondString();
+    }
+
+    private LatencyHistogram drainInterval() {
+        return intervalLatency == null ? new LatencyHistogram() : intervalLatency.get();
+    }
+
+    // A window with no latency recorded at all, e.g. a phase of one-way sends only, has no latency to settle.
+    private static boolean isEmpty(long[] counts) {
+        for (long count : counts)
+            if (count != 0)
+                return false;
+        return true;
+    }
+
+    private boolean isSteady(double[] samples) {
+        double mean = Statistics.mean(samples);
+        if (mean == 0)
+            return false;
+        for (double sample : samples)
+            if (Math.abs(sample - mean) > steadyTolerance * mean)
+                return false;
+        return true;
+    }
+
+    private static void sleepUntil(long nanos) {
+        long waitNanos;
+        while ((waitNanos = nanos - System.nanoTime()) > 0)
+            LockSupport.parkNanos(waitNanos);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Stanley Barzee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.noqms.tests.util;
+
+// Least squares straight line through a series, with the 95% confidence half width of the slope so a trend can be
+// told apart from noise.
+
+public class Trend {
+    public final double slope;
+    public final double intercept;
+    public final double slopeConfidence95;
+    public final double rSquared;
+    public final double mean;
+
+    private Trend(double slope, double intercept, double slopeConfidence95, double rSquared, double mean) {
+        this.slope = slope;
+        this.intercept = intercept;
+        this.slopeConfidence95 = slopeConfidence95;
+        this.rSquared = rSquared;
+        this.mean = mean;
+    }
+
+    public static Trend fit(double[] x, double[] y) {
+        int n = x.length;
+        double meanX = Statistics.mean(x);
+        double meanY = Statistics.mean(y);
+        double sxx = 0;
+        double sxy = 0;
+        double syy = 0;
+        for (int ix = 0; ix < n; ix++) {
+            sxx += (x[ix] - meanX) * (x[ix] - meanX);
+            sxy += (x[ix] - meanX) * (y[ix] - meanY);
+            syy += (y[ix] - meanY) * (y[ix] - meanY);
+        }
+        if (n < 3 || sxx == 0)
+            return new Trend(0, meanY, Double.POSITIVE_INFINITY, 0, meanY);
+        double slope = sxy / sxx;
+        double intercept = meanY - slope * meanX;
+        double residualSquares = Math.max(0, syy - slope * sxy);
+        double slopeError = Math.sqrt(residualSquares / (n - 2) / sxx);
+        double rSquared = syy == 0 ? 0 : 1 - residualSquares / syy;
+        return new Trend(slope, intercept, Statistics.t95(n - 2) * slopeError, rSquared, meanY);
+    }
+
+    // True when the slope is above zero with 95% confidence.
+    public boolean isRising() {
+        return slope - slopeConfidence95 > 0;
+    }
+
+    public boolean isFalling() {
+        return slope + slopeConfidence95 < 0;
+    }
+}
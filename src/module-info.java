@@ -17,10 +17,25 @@
 module com.noqms.tests {
     requires gson;
     requires com.noqms;
+    requires jdk.management;
+    requires jdk.jfr;
+    requires jdk.httpserver;
     
     opens com.noqms.tests.load to gson, com.noqms;
     opens com.noqms.tests.interaction to gson, com.noqms;
     opens com.noqms.tests.roundtrip to gson, com.noqms;
     opens com.noqms.tests.tweedle to gson, com.noqms;
     opens com.noqms.tests.distribution to gson, com.noqms;
+    opens com.noqms.tests.streaming to com.noqms;
+    opens com.noqms.tests.mixed to com.noqms;
+    opens com.noqms.tests.soak to com.noqms;
+    opens com.noqms.tests.trace to com.noqms;
+    opens com.noqms.tests.burst to com.noqms;
+    opens com.noqms.tests.coldstart to com.noqms;
+    opens com.noqms.tests.asymmetric to com.noqms;
+    opens com.noqms.tests.deadline to gson, com.noqms;
+    opens com.noqms.tests.tuning to com.noqms;
+
+    exports com.noqms.tests.metrics to java.management;
+    exports com.noqms.tests.fault to java.management;
 }